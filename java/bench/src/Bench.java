@@ -0,0 +1,268 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small microbenchmark harness in the spirit of JMH, for a tree that is
+ * built with plain javac.  Each benchmark runs in forks of its own JVM,
+ * so one benchmark's JIT profile and heap do not leak into the next.  A
+ * fork runs warm-up iterations, then measured iterations of a fixed time.
+ * An iteration runs the operation in batches and reads the clock only
+ * between batches; the batch size is set during warm-up so a batch takes
+ * at least retail.bench.batchUs, which keeps the timer's own cost out of
+ * nanosecond-scale operations.  The report gives the mean time per
+ * operation over the iterations of all forks with its spread, the bytes
+ * allocated per operation (from the HotSpot per-thread allocation
+ * counter, as JMH's gc profiler does) and the GC count and time spent
+ * during measurement.
+ *
+ * Settings come from system properties:
+ *
+ *    retail.bench.forks        JVMs per benchmark, 0 to run in this JVM (1)
+ *    retail.bench.warmup       warm-up iterations (5)
+ *    retail.bench.iterations   measured iterations (10)
+ *    retail.bench.iterationMs  length of one iteration in ms (500)
+ *    retail.bench.batchUs      shortest timed batch in microseconds (10)
+ *    retail.bench.filter       only run benchmarks whose name contains it
+ *
+ */
+public class Bench {
+
+   /**
+    * One benchmarked operation.  Results must be returned, not dropped,
+    * so the JIT can not remove the work.
+    */
+   public interface Op {
+      long run() throws Exception;
+   }//end Op
+
+   // marks the result line a fork writes for its parent.
+   private static final String RESULT = "BENCH-RESULT\t";
+
+   // consumes results so the measured work stays live.
+   private static volatile long sink;
+
+   private final int forks = Integer.getInteger("retail.bench.forks", 1);
+   private final int warmup = Integer.getInteger("retail.bench.warmup", 5);
+   private final int iterations = Integer.getInteger("retail.bench.iterations", 10);
+   private final long iterationNanos = Long.getLong("retail.bench.iterationMs", 500L) * 1000000L;
+   private final long batchNanos = Math.max(1L, Long.getLong("retail.bench.batchUs", 10L)) * 1000L;
+   private final String filter = System.getProperty("retail.bench.filter", "");
+   // set in a fork: the one benchmark it measures.
+   private final String only = System.getProperty("retail.bench.only");
+   private final Class<?> main;
+   private final com.sun.management.ThreadMXBean threads;
+   // standard out as it was when the run started; suites may replace it.
+   private final PrintStream out = System.out;
+   private final List<String> report = new ArrayList<String>();
+
+   // the measurements of one benchmark, from one fork or all of them.
+   static class Result {
+      final List<Double> nsPerOp = new ArrayList<Double>();
+      long ops;
+      long allocated;
+      long gcCount;
+      long gcMillis;
+   }//end Result
+
+   /**
+    * @param main the class whose main runs the suites, started again in
+    *        every fork
+    */
+   public Bench(Class<?> main) {
+      this.main = main;
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      this.threads = bean instanceof com.sun.management.ThreadMXBean
+         ? (com.sun.management.ThreadMXBean) bean : null;
+      if (this.threads != null && this.threads.isThreadAllocatedMemorySupported())
+         this.threads.setThreadAllocatedMemoryEnabled(true);
+   }//end Bench
+
+   /**
+    * Measures op unless it is excluded by retail.bench.filter.
+    *
+    * @param name benchmark name, e.g. "distance.scan:10000"
+    * @param op the operation to measure
+    */
+   public void run(String name, Op op) throws Exception {
+      Result result;
+      if (this.only != null){
+         if (!name.equals(this.only))
+            return;
+         // a fork: measure and hand the numbers to the parent.
+         this.out.println(RESULT + encode(measure(op)));
+         this.out.flush();
+         return;
+      }
+      if (!name.contains(this.filter))
+         return;
+      if (this.forks <= 0){
+         result = measure(op);
+      }else{
+         result = new Result();
+         for (int f = 0; f < this.forks; ++f)
+            merge(result, fork(name));
+      }
+
+      double mean = 0;
+      for (double v : result.nsPerOp)
+         mean += v;
+      mean /= result.nsPerOp.size();
+      double variance = 0;
+      for (double v : result.nsPerOp)
+         variance += (v - mean) * (v - mean);
+      int n = result.nsPerOp.size();
+      double stdev = n > 1 ? Math.sqrt(variance / (n - 1)) : 0;
+
+      String line = String.format("%-36s %14.3f ns/op  +- %10.3f %14s B/op %6d gc %6d ms",
+         name, mean, stdev,
+         this.threads == null ? "n/a" : String.format("%.1f", (double) result.allocated / result.ops),
+         result.gcCount, result.gcMillis);
+      System.err.println(line);
+      this.report.add(line);
+   }//end run
+
+   /**
+    * Prints every result collected so far to standard out.
+    */
+   public void printReport() {
+      if (this.only != null)
+         return;
+      this.out.println(String.format("%-36s %14s %15s %14s %9s %9s",
+         "Benchmark", "Mean", "Error", "Alloc", "GC", "GC time"));
+      for (String line : this.report)
+         this.out.println(line);
+   }//end printReport
+
+   // warms op up and measures it in this JVM.
+   private Result measure(Op op) throws Exception {
+      long batch = 1;
+      for (int i = 0; i < this.warmup; ++i)
+         batch = calibrate(op, batch);
+
+      Result result = new Result();
+      result.gcCount = -gcCount();
+      result.gcMillis = -gcMillis();
+      for (int i = 0; i < this.iterations; ++i){
+         long before = allocatedBytes();
+         long[] timed = iteration(op, batch);
+         result.allocated += allocatedBytes() - before;
+         result.ops += timed[0];
+         result.nsPerOp.add((double) timed[1] / timed[0]);
+      }//end for
+      result.gcCount += gcCount();
+      result.gcMillis += gcMillis();
+      return result;
+   }//end measure
+
+   // one warm-up iteration; returns a batch size that takes batchNanos.
+   private long calibrate(Op op, long batch) throws Exception {
+      long[] timed = iteration(op, batch);
+      double nsPerOp = Math.max((double) timed[1] / timed[0], 0.01);
+      return Math.max(1L, (long) Math.ceil(this.batchNanos / nsPerOp));
+   }//end calibrate
+
+   // runs op in batches for one iteration; returns {ops, elapsed nanos}.
+   private long[] iteration(Op op, long batch) throws Exception {
+      long ops = 0;
+      long acc = 0;
+      long start = System.nanoTime();
+      long elapsed;
+      do{
+         for (long i = 0; i < batch; ++i)
+            acc += op.run();
+         ops += batch;
+         elapsed = System.nanoTime() - start;
+      }while (elapsed < this.iterationNanos);
+      sink += acc;
+      return new long[] { ops, elapsed };
+   }//end iteration
+
+   // runs the named benchmark alone in a new JVM with this JVM's options.
+   private Result fork(String name) throws IOException, InterruptedException {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + "/bin/java");
+      command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      command.add("-Dretail.bench.only=" + name);
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(this.main.getName());
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      Process process = builder.start();
+
+      Result result = null;
+      BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      try{
+         String line;
+         while ((line = lines.readLine()) != null){
+            if (line.startsWith(RESULT))
+               result = decode(line.substring(RESULT.length()));
+            else
+               this.out.println(line);
+         }//end while
+      }finally{
+         lines.close();
+      }
+      int status = process.waitFor();
+      if (result == null)
+         throw new IllegalStateException("Fork of " + name + " failed with exit status " + status);
+      return result;
+   }//end fork
+
+   private static void merge(Result into, Result from) {
+      into.nsPerOp.addAll(from.nsPerOp);
+      into.ops += from.ops;
+      into.allocated += from.allocated;
+      into.gcCount += from.gcCount;
+      into.gcMillis += from.gcMillis;
+   }//end merge
+
+   // ops, allocated, gcCount, gcMillis, then the ns/op of each iteration.
+   private static String encode(Result result) {
+      StringBuilder line = new StringBuilder();
+      line.append(result.ops).append('\t').append(result.allocated).append('\t')
+         .append(result.gcCount).append('\t').append(result.gcMillis);
+      for (double v : result.nsPerOp)
+         line.append('\t').append(v);
+      return line.toString();
+   }//end encode
+
+   private static Result decode(String line) {
+      String[] fields = line.split("\t");
+      Result result = new Result();
+      result.ops = Long.parseLong(fields[0]);
+      result.allocated = Long.parseLong(fields[1]);
+      result.gcCount = Long.parseLong(fields[2]);
+      result.gcMillis = Long.parseLong(fields[3]);
+      for (int i = 4; i < fields.length; ++i)
+         result.nsPerOp.add(Double.valueOf(fields[i]));
+      return result;
+   }//end decode
+
+   private long allocatedBytes() {
+      if (this.threads == null)
+         return 0;
+      return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }//end allocatedBytes
+
+   private static long gcCount() {
+      long count = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+         count += Math.max(gc.getCollectionCount(), 0);
+      return count;
+   }//end gcCount
+
+   private static long gcMillis() {
+      long millis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+         millis += Math.max(gc.getCollectionTime(), 0);
+      return millis;
+   }//end gcMillis
+
+}//end Bench
@@ -0,0 +1,88 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * An in-memory stand-in for a driver ResultSet, so result handling can be
+ * benchmarked without a database.  Only the calls the Retail helpers make
+ * are supported: next, the getters by column index, wasNull, getMetaData
+ * and close.  The proxy dispatch costs the same for every consumer, so it
+ * shifts absolute numbers but not comparisons between them.
+ *
+ */
+public class FakeResultSet implements InvocationHandler {
+
+   private final String[] names;
+   private final int[] types;
+   private final Object[][] rows;
+   private final ResultSet resultSet;
+   private final ResultSetMetaData metaData;
+   private int row = -1;
+   private boolean wasNull = false;
+
+   /**
+    * @param names column names
+    * @param types java.sql.Types of the columns
+    * @param rows row values; Integer, Long, Double, String or null
+    */
+   public FakeResultSet(String[] names, int[] types, Object[][] rows) {
+      this.names = names;
+      this.types = types;
+      this.rows = rows;
+      ClassLoader loader = ResultSet.class.getClassLoader();
+      this.resultSet = (ResultSet) Proxy.newProxyInstance(loader,
+         new Class<?>[] { ResultSet.class }, this);
+      this.metaData = (ResultSetMetaData) Proxy.newProxyInstance(loader,
+         new Class<?>[] { ResultSetMetaData.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+               String name = method.getName();
+               if (name.equals("getColumnCount"))
+                  return FakeResultSet.this.names.length;
+               int col = (Integer) args[0] - 1;
+               if (name.equals("getColumnName") || name.equals("getColumnLabel"))
+                  return FakeResultSet.this.names[col];
+               if (name.equals("getColumnType"))
+                  return FakeResultSet.this.types[col];
+               throw new UnsupportedOperationException(name);
+            }
+         });
+   }//end FakeResultSet
+
+   /**
+    * @return the result set, positioned before the first row
+    */
+   public ResultSet resultSet() {
+      this.row = -1;
+      return this.resultSet;
+   }//end resultSet
+
+   public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+      String name = method.getName();
+      if (name.equals("next"))
+         return ++this.row < this.rows.length;
+      if (name.equals("wasNull"))
+         return this.wasNull;
+      if (name.equals("getMetaData"))
+         return this.metaData;
+      if (name.equals("close"))
+         return null;
+      if (args == null || args.length != 1 || !(args[0] instanceof Integer))
+         throw new UnsupportedOperationException(name);
+
+      Object v = this.rows[this.row][(Integer) args[0] - 1];
+      this.wasNull = v == null;
+      if (name.equals("getString") || name.equals("getObject"))
+         return v == null ? null : v.toString();
+      if (name.equals("getInt"))
+         return v == null ? 0 : ((Number) v).intValue();
+      if (name.equals("getLong"))
+         return v == null ? 0L : ((Number) v).longValue();
+      if (name.equals("getDouble"))
+         return v == null ? 0.0 : ((Number) v).doubleValue();
+      throw new UnsupportedOperationException(name);
+   }//end invoke
+
+}//end FakeResultSet
@@ -0,0 +1,173 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Microbenchmarks of the Java side of Retail: store distance search,
+ * result materialization, the product validation lookups and the result
+ * printing path.  Run with java/scripts/bench.sh; see Bench for settings.
+ * Sizes are fixed and the data is seeded, so runs before and after a
+ * change are comparable.
+ *
+ */
+public class RetailBench {
+
+   static final int[] STORE_COUNTS = { 1000, 10000, 100000 };
+   static final int[] ROW_COUNTS = { 100, 10000 };
+   static final int PRODUCTS_PER_STORE = 100;
+
+   public static void main(String[] args) throws Exception {
+      Bench bench = new Bench(RetailBench.class);
+      distance(bench);
+      materialize(bench);
+      validate(bench);
+      print(bench);
+      bench.printReport();
+   }//end main
+
+   // viewStores: a linear calculateDistance scan against the grid index.
+   static void distance(Bench bench) throws Exception {
+      for (int n : STORE_COUNTS){
+         Random random = new Random(n);
+         final int[] ids = new int[n];
+         final double[] lat = new double[n];
+         final double[] lon = new double[n];
+         for (int i = 0; i < n; ++i){
+            ids[i] = i + 1;
+            lat[i] = random.nextDouble() * 100;
+            lon[i] = random.nextDouble() * 100;
+         }//end for
+         final double[] queries = new double[2048];
+         for (int i = 0; i < queries.length; ++i)
+            queries[i] = random.nextDouble() * 100;
+         final GeoIndex index = new GeoIndex(ids, null, lat, lon);
+
+         bench.run("distance.scan:" + n, new Bench.Op() {
+            int q = 0;
+            public long run() {
+               double qLat = queries[q++ & 2047];
+               double qLon = queries[q++ & 2047];
+               long found = 0;
+               for (int i = 0; i < lat.length; ++i){
+                  if (Retail.calculateDistance(qLat, qLon, lat[i], lon[i]) < 30)
+                     ++found;
+               }//end for
+               return found;
+            }
+         });
+         bench.run("distance.geoIndex:" + n, new Bench.Op() {
+            int q = 0;
+            public long run() {
+               double qLat = queries[q++ & 2047];
+               double qLon = queries[q++ & 2047];
+               return index.withinRadius(qLat, qLon, 30).length;
+            }
+         });
+      }//end for
+   }//end distance
+
+   // executeQueryAndReturnResult's readRows against ResultTable.read.
+   static void materialize(Bench bench) throws Exception {
+      for (int n : ROW_COUNTS){
+         final FakeResultSet products = productRows(n);
+         bench.run("materialize.readRows:" + n, new Bench.Op() {
+            public long run() throws Exception {
+               return Retail.readRows(products.resultSet()).size();
+            }
+         });
+         bench.run("materialize.resultTable:" + n, new Bench.Op() {
+            public long run() throws Exception {
+               return ResultTable.read(products.resultSet()).size();
+            }
+         });
+      }//end for
+   }//end materialize
+
+   /*
+    * placeOrder/updateProduct used to fetch every Product row and scan it
+    * for the entered storeID and productName; they now look the key up.
+    * The lookup itself runs in Postgres, so a hash set stands in for it.
+    */
+   static void validate(Bench bench) throws Exception {
+      for (int stores : new int[] { 10, 1000 }){
+         int n = stores * PRODUCTS_PER_STORE;
+         final List<List<String>> rows = Retail.readRows(productRows(n).resultSet());
+         final Set<String> keys = new HashSet<String>();
+         for (List<String> row : rows)
+            keys.add(row.get(0) + "|" + row.get(1));
+         final Random random = new Random(n);
+         final int storeCount = stores;
+
+         bench.run("validate.scan:" + n, new Bench.Op() {
+            public long run() {
+               String storeID = String.valueOf(1 + random.nextInt(storeCount));
+               String productName = DataGenerator.productName(random.nextInt(PRODUCTS_PER_STORE));
+               for (List<String> row : rows){
+                  if (row.get(0).trim().equals(storeID) && row.get(1).trim().equals(productName))
+                     return 1;
+               }//end for
+               return 0;
+            }
+         });
+         bench.run("validate.keyed:" + n, new Bench.Op() {
+            public long run() {
+               String storeID = String.valueOf(1 + random.nextInt(storeCount));
+               String productName = DataGenerator.productName(random.nextInt(PRODUCTS_PER_STORE));
+               return keys.contains(storeID + "|" + productName) ? 1 : 0;
+            }
+         });
+      }//end for
+   }//end validate
+
+   // executeQueryAndPrintResult's RowPrinter, writing to a discarding stream.
+   static void print(Bench bench) throws Exception {
+      PrintStream out = System.out;
+      System.setOut(new PrintStream(new OutputStream() {
+         public void write(int b) { }
+         public void write(byte[] b, int off, int len) { }
+      }));
+      try{
+         for (int n : ROW_COUNTS){
+            final FakeResultSet products = productRows(n);
+            bench.run("print.rowPrinter:" + n, new Bench.Op() {
+               public long run() throws Exception {
+                  ResultSet rs = products.resultSet();
+                  Retail.RowPrinter printer = new Retail.RowPrinter();
+                  long rows = 0;
+                  while (rs.next()){
+                     printer.handleRow(rs);
+                     ++rows;
+                  }//end while
+                  return rows;
+               }
+            });
+         }//end for
+      }finally{
+         System.setOut(out);
+      }
+   }//end print
+
+   // n Product rows in the shape of SELECT * FROM Product.
+   static FakeResultSet productRows(int n) {
+      Random random = new Random(n);
+      Object[][] rows = new Object[n][];
+      for (int i = 0; i < n; ++i){
+         String name = DataGenerator.productName(i % PRODUCTS_PER_STORE);
+         // char(30) columns come back blank padded.
+         while (name.length() < 30)
+            name += " ";
+         rows[i] = new Object[] {
+            1 + i / PRODUCTS_PER_STORE, name, random.nextInt(1000), (double) (1 + random.nextInt(20)) };
+      }//end for
+      return new FakeResultSet(
+         new String[] { "storeid", "productname", "numberofunits", "priceperunit" },
+         new int[] { Types.INTEGER, Types.CHAR, Types.INTEGER, Types.NUMERIC },
+         rows);
+   }//end productRows
+
+}//end RetailBench
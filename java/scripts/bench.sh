@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the program and the benchmarks
+mkdir -p $DIR/../bench/classes
+javac -d $DIR/../bench/classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../bench/src/*.java
+
+#run the benchmarks, e.g. ./bench.sh -Dretail.bench.filter=distance
+java -Xms1g -Xmx1g "$@" -cp $DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar RetailBench
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java
+
+#check the query plans of a loaded database, e.g. ./plancheck.sh -Dretail.plan.maxCost=500
+java "$@" -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanCheck $USER"_DB" $PGPORT $USER
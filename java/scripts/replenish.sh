@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java
+
+#top up low stock every interval, e.g. ./replenish.sh -Dretail.replenish.intervalSec=60
+java "$@" -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ReplenishmentEngine $USER"_DB" $PGPORT $USER
@@ -0,0 +1,279 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the ProductUpdates audit trail in the background, so a product
+ * edit does not wait for its audit row.  record() only queues the row,
+ * stamped with the time of the edit.  A writer thread collects what
+ * queues up for retail.audit.flushMs (200) milliseconds and inserts it
+ * with one multi-row statement per retail.audit.batchSize (500) rows.
+ *
+ * The queue holds retail.audit.queueSize (10000) rows.  When it is full,
+ * record() waits up to retail.audit.offerTimeoutMs (1000) milliseconds
+ * and then writes the row itself, so a writer that falls behind slows
+ * the editors down instead of losing their rows.
+ *
+ * The driver reports no SQLState, so a failed batch is judged by probing
+ * the database.  If the database is unreachable, the batch stays queued and
+ * is retried at the next flush.  If it is reachable, or the batch has
+ * failed retail.audit.retries (3) times, the batch is written row by row
+ * and the rows that still fail are reported on standard error and
+ * dropped.  close() writes everything still queued.
+ *
+ */
+public class AuditWriter {
+
+   // one ProductUpdates row.
+   static class Entry {
+      final int managerID;
+      final int storeID;
+      final String productName;
+      final long updatedOn;
+
+      Entry(int managerID, int storeID, String productName, long updatedOn) {
+         this.managerID = managerID;
+         this.storeID = storeID;
+         this.productName = productName;
+         this.updatedOn = updatedOn;
+      }
+   }//end Entry
+
+   private static final String PROBE = "SELECT 1";
+
+   private final Retail esql;
+   private final int batchSize;
+   private final long flushMillis;
+   private final long offerTimeoutMillis;
+   private final int maxRetries;
+   private final ArrayBlockingQueue<Entry> queue;
+
+   // rows taken from the queue but not written yet; guarded by writeLock.
+   private final List<Entry> pending = new ArrayList<Entry>();
+   private final Object writeLock = new Object();
+   // failed attempts at the batch in pending; guarded by writeLock.
+   private int failures = 0;
+
+   private Thread writer = null;
+   private volatile boolean closed = false;
+
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong direct = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+
+   public AuditWriter(Retail esql) {
+      this.esql = esql;
+      this.batchSize = Math.max(1, Integer.getInteger("retail.audit.batchSize", 500));
+      this.flushMillis = Math.max(1L, Long.getLong("retail.audit.flushMs", 200L));
+      this.offerTimeoutMillis = Math.max(0L, Long.getLong("retail.audit.offerTimeoutMs", 1000L));
+      this.maxRetries = Math.max(1, Integer.getInteger("retail.audit.retries", 3));
+      this.queue = new ArrayBlockingQueue<Entry>(Math.max(1, Integer.getInteger("retail.audit.queueSize", 10000)));
+   }//end AuditWriter
+
+   /**
+    * Records that a user changed a product, now.
+    *
+    * @throws java.sql.SQLException when the queue was full and writing the
+    *         row directly failed
+    */
+   public void record(int managerID, int storeID, String productName) throws SQLException {
+      Entry entry = new Entry(managerID, storeID, productName, System.currentTimeMillis());
+      if (!this.closed){
+         startWriter();
+         try{
+            if (this.queue.offer(entry, this.offerTimeoutMillis, TimeUnit.MILLISECONDS))
+               return;
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+         }
+      }
+      // the writer is behind or gone: write it on the caller's time.
+      this.direct.incrementAndGet();
+      write(Collections.singletonList(entry));
+      this.written.incrementAndGet();
+   }//end record
+
+   private synchronized void startWriter() {
+      if (this.writer != null)
+         return;
+      this.writer = new Thread(new Runnable() {
+         public void run() { runWriter(); }
+      }, "audit-writer");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }//end startWriter
+
+   private void runWriter() {
+      while (!this.closed){
+         try{
+            Entry first = this.queue.poll(this.flushMillis, TimeUnit.MILLISECONDS);
+            if (first != null){
+               // pending first, so close() writes it if the sleep is cut short.
+               synchronized (this.writeLock){
+                  this.pending.add(first);
+               }
+               // let the rows of one interval join the first.
+               if (this.queue.size() < this.batchSize - 1)
+                  Thread.sleep(this.flushMillis);
+            }
+            flush();
+         }catch (InterruptedException e){
+            // close() flushes what is left.
+            break;
+         }
+      }//end while
+   }//end runWriter
+
+   /**
+    * Writes every queued row now, e.g. before a product is renamed or
+    * deleted, so its rows still match it.
+    *
+    * @return false if some rows could not be written and are still queued
+    */
+   public boolean flush() {
+      synchronized (this.writeLock){
+         while (true){
+            if (this.pending.size() < this.batchSize)
+               this.queue.drainTo(this.pending, this.batchSize - this.pending.size());
+            if (this.pending.isEmpty())
+               return true;
+            try{
+               write(this.pending);
+               this.written.addAndGet(this.pending.size());
+            }catch (SQLException e){
+               ++this.failures;
+               if (this.failures < this.maxRetries && !reachable()){
+                  System.err.println("Audit write failed, will retry: " + e.getMessage());
+                  return false;
+               }
+               // a row of the batch is bad, or the batch keeps failing.
+               if (!writeEach())
+                  return false;
+            }
+            this.pending.clear();
+            this.failures = 0;
+         }//end while
+      }
+   }//end flush
+
+   // writes pending row by row and drops the rows the database rejects;
+   // false if the database became unreachable, leaving the rest pending.
+   private boolean writeEach() {
+      for (int i = 0; i < this.pending.size(); ++i){
+         Entry entry = this.pending.get(i);
+         try{
+            write(Collections.singletonList(entry));
+            this.written.incrementAndGet();
+         }catch (SQLException e){
+            if (!reachable()){
+               System.err.println("Audit write failed, will retry: " + e.getMessage());
+               this.pending.subList(0, i).clear();
+               return false;
+            }
+            this.rejected.incrementAndGet();
+            System.err.println("Audit row dropped (store " + entry.storeID + ", '" + entry.productName
+               + "'): " + e.getMessage());
+         }
+      }//end for
+      return true;
+   }//end writeEach
+
+   // whether a trivial statement still runs, i.e. a failure was the data's.
+   private boolean reachable() {
+      ConnectionPool pool = this.esql.getConnectionPool();
+      Connection conn = null;
+      try{
+         conn = pool.borrow();
+         Statement stmt = conn.createStatement();
+         try{
+            stmt.executeQuery(PROBE).close();
+            return true;
+         }finally{
+            stmt.close();
+         }
+      }catch (SQLException e){
+         return false;
+      }finally{
+         if (conn != null)
+            pool.release(conn);
+      }
+   }//end reachable
+
+   static String insertSql(int rows) {
+      StringBuilder sql = new StringBuilder(
+         "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES ");
+      OrderIngestor.appendTuples(sql, rows, "?, ?, ?, cast(? as timestamp)");
+      return sql.toString();
+   }//end insertSql
+
+   private void write(List<Entry> entries) throws SQLException {
+      // updatedOn is a timestamp without time zone, in local time as before.
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+      ConnectionPool pool = this.esql.getConnectionPool();
+      Connection conn = pool.borrow();
+      try{
+         PreparedStatement stmt = conn.prepareStatement(insertSql(entries.size()));
+         try{
+            int i = 1;
+            for (Entry entry : entries){
+               stmt.setInt(i++, entry.managerID);
+               stmt.setInt(i++, entry.storeID);
+               stmt.setString(i++, entry.productName);
+               stmt.setString(i++, format.format(new Date(entry.updatedOn)));
+            }//end for
+            stmt.executeUpdate();
+         }finally{
+            stmt.close();
+         }
+      }finally{
+         pool.release(conn);
+      }
+   }//end write
+
+   /**
+    * Stops the writer and writes every row still queued.  Rows recorded
+    * afterwards are written directly.
+    */
+   public void close() {
+      this.closed = true;
+      Thread thread;
+      synchronized (this){
+         thread = this.writer;
+      }
+      if (thread != null){
+         thread.interrupt();
+         try{
+            thread.join(10000);
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+         }
+      }
+      if (!flush()){
+         int lost;
+         synchronized (this.writeLock){
+            lost = this.pending.size() + this.queue.size();
+         }
+         System.err.println("Audit writer closed with " + lost + " rows unwritten");
+      }
+   }//end close
+
+   public int getQueued() { return this.queue.size(); }
+   public long getWritten() { return this.written.get(); }
+   public long getDirect() { return this.direct.get(); }
+   public long getRejected() { return this.rejected.get(); }
+
+   public String toString() {
+      return String.format("queued=%d written=%d direct=%d rejected=%d",
+         this.queue.size(), this.written.get(), this.direct.get(), this.rejected.get());
+   }//end toString
+
+}//end AuditWriter
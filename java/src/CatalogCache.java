@@ -0,0 +1,186 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-through cache of store catalogs, so browsing a store usually needs
+ * no database round trip.  At most retail.catalog.maxStores (1000)
+ * catalogs are kept, evicting the least recently used.
+ *
+ * Every write to Product made through this process must be reported here
+ * once it is committed: stock and price changes update the cached copy,
+ * anything else (added, deleted or renamed products, bulk loads) drops
+ * it.  Writes by other processes are picked up when a catalog is older
+ * than retail.catalog.ttlSec (30) seconds.  Stock shown from the cache may
+ * therefore be briefly stale, but orders and supply requests re-check it
+ * in the database.
+ *
+ * Writers of a store hold its stripe's lock while they update the cached
+ * copy, so writers of other stores do not wait for them; the lock of the
+ * cache itself only guards the LRU map, for a get, put or remove.
+ *
+ */
+public class CatalogCache {
+
+   static final String STORE_PRODUCTS =
+      "SELECT productName, numberOfUnits, pricePerUnit FROM ProductStock WHERE storeID = ? ORDER BY productName";
+
+   // bumped on every write to a store, so a load that raced with the
+   // write is not cached.  Stores share the 64 stripes, which also lock
+   // the writes to their stores.
+   private static final int STRIPES = 64;
+   private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+   private final Object[] locks = new Object[STRIPES];
+
+   private final Retail esql;
+   private final int maxStores;
+   private final long ttlMillis;
+   private final LinkedHashMap<Integer, StoreCatalog> catalogs;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong evictions = new AtomicLong();
+
+   public CatalogCache(Retail esql) {
+      this.esql = esql;
+      this.maxStores = Integer.getInteger("retail.catalog.maxStores", 1000);
+      this.ttlMillis = Long.getLong("retail.catalog.ttlSec", 30L) * 1000L;
+      this.catalogs = new LinkedHashMap<Integer, StoreCatalog>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Integer, StoreCatalog> eldest) {
+            if (size() <= CatalogCache.this.maxStores)
+               return false;
+            CatalogCache.this.evictions.incrementAndGet();
+            return true;
+         }
+      };
+      for (int i = 0; i < STRIPES; ++i)
+         this.locks[i] = new Object();
+   }//end CatalogCache
+
+   /**
+    * @return the store's catalog, from the cache if it is there and fresh
+    * @throws java.sql.SQLException when the products can not be read
+    */
+   public StoreCatalog get(int storeID) throws SQLException {
+      long now = System.currentTimeMillis();
+      synchronized (this){
+         StoreCatalog cached = this.catalogs.get(storeID);
+         if (cached != null && now - cached.loadedAt <= this.ttlMillis){
+            this.hits.incrementAndGet();
+            return cached;
+         }
+      }
+      this.misses.incrementAndGet();
+      long generation = this.generations.get(stripe(storeID));
+      StoreCatalog loaded = new StoreCatalog(storeID,
+         this.esql.executeQueryAndReturnTable(STORE_PRODUCTS, storeID), now);
+      synchronized (this.locks[stripe(storeID)]){
+         if (this.generations.get(stripe(storeID)) == generation){
+            synchronized (this){
+               this.catalogs.put(storeID, loaded);
+            }
+         }
+      }
+      return loaded;
+   }//end get
+
+   /**
+    * Records a committed stock change of delta units.
+    */
+   public void addUnits(int storeID, String productName, int delta) {
+      synchronized (this.locks[stripe(storeID)]){
+         StoreCatalog cached = written(storeID);
+         if (cached == null)
+            return;
+         int units = cached.units(productName);
+         replace(storeID, cached, units < 0 ? null : cached.withUnits(productName, units + delta));
+      }
+   }//end addUnits
+
+   /**
+    * Records a committed stock change to exactly units.
+    */
+   public void setUnits(int storeID, String productName, int units) {
+      synchronized (this.locks[stripe(storeID)]){
+         StoreCatalog cached = written(storeID);
+         if (cached != null)
+            replace(storeID, cached, cached.withUnits(productName, units));
+      }
+   }//end setUnits
+
+   /**
+    * Records a committed price change.
+    */
+   public void setPrice(int storeID, String productName, double price) {
+      synchronized (this.locks[stripe(storeID)]){
+         StoreCatalog cached = written(storeID);
+         if (cached != null)
+            replace(storeID, cached, cached.withPrice(productName, price));
+      }
+   }//end setPrice
+
+   /**
+    * Drops the store's catalog, e.g. after products were added, deleted or
+    * renamed.
+    */
+   public void invalidate(int storeID) {
+      synchronized (this.locks[stripe(storeID)]){
+         this.generations.incrementAndGet(stripe(storeID));
+         synchronized (this){
+            this.catalogs.remove(storeID);
+         }
+      }
+   }//end invalidate
+
+   /**
+    * Drops every catalog, e.g. after a bulk load.
+    */
+   public void invalidateAll() {
+      // under each lock, so no load checks its generation in between.
+      for (int i = 0; i < STRIPES; ++i){
+         synchronized (this.locks[i]){
+            this.generations.incrementAndGet(i);
+         }
+      }//end for
+      synchronized (this){
+         this.catalogs.clear();
+      }
+   }//end invalidateAll
+
+   // marks a write to the store and returns its cached catalog, if any;
+   // the caller holds the store's lock.
+   private StoreCatalog written(int storeID) {
+      this.generations.incrementAndGet(stripe(storeID));
+      synchronized (this){
+         return this.catalogs.get(storeID);
+      }
+   }//end written
+
+   // puts updated in place of cached unless it was evicted meanwhile;
+   // null (a product the cached copy does not know) drops the catalog.
+   private synchronized void replace(int storeID, StoreCatalog cached, StoreCatalog updated) {
+      if (this.catalogs.get(storeID) != cached)
+         return;
+      if (updated == null)
+         this.catalogs.remove(storeID);
+      else
+         this.catalogs.put(storeID, updated);
+   }//end replace
+
+   private static int stripe(int storeID) {
+      return (storeID & 0x7fffffff) % STRIPES;
+   }//end stripe
+
+   public synchronized int size() { return this.catalogs.size(); }
+   public long getHits() { return this.hits.get(); }
+   public long getMisses() { return this.misses.get(); }
+   public long getEvictions() { return this.evictions.get(); }
+
+   public String toString() {
+      return String.format("catalogs=%d hits=%d misses=%d evictions=%d",
+         size(), this.hits.get(), this.misses.get(), this.evictions.get());
+   }//end toString
+
+}//end CatalogCache
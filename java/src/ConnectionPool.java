@@ -0,0 +1,350 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded pool of physical PostgreSQL connections.  Callers borrow
+ * a connection, use it and hand it back with release().  The pool keeps at
+ * least minSize connections open, never opens more than maxSize, closes
+ * connections that sat idle longer than the idle timeout and validates a
+ * connection before lending it out if it has not been used recently.
+ *
+ */
+public class ConnectionPool {
+
+   // one pooled physical connection and its bookkeeping.
+   static class Entry {
+      final Connection connection;
+      final StatementCache statements;
+      long lastUsed;
+
+      Entry(Connection connection, StatementCache statements) {
+         this.connection = connection;
+         this.statements = statements;
+         this.lastUsed = System.currentTimeMillis();
+      }
+   }//end Entry
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int minSize;
+   private final int maxSize;
+   private final long idleTimeoutMillis;
+   private final long borrowTimeoutMillis;
+   private final long validationIntervalMillis;
+   private final int statementCacheSize;
+   private final boolean serverPrepare;
+
+   // most recently returned connections sit at the head of the deque.
+   private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+   private final IdentityHashMap<Connection, Entry> leased =
+      new IdentityHashMap<Connection, Entry>();
+   private int total = 0;
+   private boolean closed = false;
+   private final Timer evictor;
+
+   // pool metrics
+   private final AtomicLong borrowCount = new AtomicLong();
+   private final AtomicLong waitCount = new AtomicLong();
+   private final AtomicLong waitNanos = new AtomicLong();
+   private final AtomicLong createdCount = new AtomicLong();
+   private final AtomicLong evictedCount = new AtomicLong();
+   private final AtomicLong validationFailures = new AtomicLong();
+   private final AtomicLong statementHits = new AtomicLong();
+   private final AtomicLong statementMisses = new AtomicLong();
+   private final AtomicLong statementsServerPrepared = new AtomicLong();
+
+   /**
+    * Creates a new pool and opens minSize connections up front.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize number of connections kept open at all times
+    * @param maxSize upper bound on open connections
+    * @param idleTimeoutMillis idle connections above minSize are closed after this long
+    * @param borrowTimeoutMillis how long borrow() waits for a free connection
+    * @throws java.sql.SQLException when the initial connections can not be opened
+    */
+   public ConnectionPool(String url, String user, String passwd,
+                         int minSize, int maxSize,
+                         long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      this.borrowTimeoutMillis = borrowTimeoutMillis;
+      this.validationIntervalMillis = 1000;
+      this.statementCacheSize = Integer.getInteger("retail.pool.statementCacheSize", 64);
+      this.serverPrepare = !"false".equals(System.getProperty("retail.pool.serverPrepare"));
+
+      for (int i = 0; i < minSize; ++i){
+         this.idle.addLast(newEntry());
+         ++this.total;
+      }//end for
+
+      this.evictor = new Timer("connection-pool-evictor", true);
+      long period = Math.max(1000, idleTimeoutMillis / 2);
+      this.evictor.schedule(new TimerTask() {
+         public void run() { evictIdle(); }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection from the pool, opening a new one if none is idle
+    * and the pool is below maxSize, otherwise waiting for one to be released.
+    *
+    * @return a validated connection in autocommit mode
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public Connection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + this.borrowTimeoutMillis * 1000000L;
+      boolean waited = false;
+      try{
+         while (true){
+            Entry entry = null;
+            boolean create = false;
+            synchronized (this){
+               while (entry == null && !create){
+                  if (this.closed)
+                     throw new SQLException("Connection pool is closed");
+                  entry = this.idle.pollFirst();
+                  if (entry == null){
+                     if (this.total < this.maxSize){
+                        ++this.total;
+                        create = true;
+                     }else{
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0)
+                           throw new SQLException("Timed out waiting for a database connection ("
+                              + this.maxSize + " in use)");
+                        waited = true;
+                        this.wait(remaining / 1000000L + 1);
+                     }
+                  }
+               }//end while
+            }
+
+            if (create){
+               try{
+                  entry = newEntry();
+               }catch (SQLException e){
+                  synchronized (this){
+                     --this.total;
+                     this.notifyAll();
+                  }
+                  throw e;
+               }
+            }else if (!isValid(entry)){
+               this.validationFailures.incrementAndGet();
+               discard(entry);
+               continue;
+            }
+
+            synchronized (this){
+               this.leased.put(entry.connection, entry);
+            }
+            this.borrowCount.incrementAndGet();
+            return entry.connection;
+         }//end while
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }finally{
+         if (waited){
+            this.waitCount.incrementAndGet();
+            this.waitNanos.addAndGet(System.nanoTime() - start);
+         }
+      }//end try
+   }//end borrow
+
+   /**
+    * Returns a prepared statement for sql from the statement cache of a
+    * borrowed connection.  The statement stays owned by the cache and must
+    * not be closed by the caller.
+    *
+    * @param conn a connection obtained from borrow()
+    * @param sql the SQL template with ? placeholders
+    * @return the cached prepared statement
+    * @throws java.sql.SQLException when the statement can not be prepared
+    */
+   public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+      Entry entry;
+      synchronized (this){
+         entry = this.leased.get(conn);
+      }
+      if (entry == null)
+         throw new SQLException("Connection is not leased from this pool");
+      return entry.statements.prepare(sql);
+   }//end prepare
+
+   /**
+    * Returns a borrowed connection to the pool.  Broken or closed connections
+    * are dropped instead of being reused.
+    *
+    * @param conn a connection obtained from borrow()
+    */
+   public void release(Connection conn) {
+      if (conn == null)
+         return;
+      Entry entry;
+      synchronized (this){
+         entry = this.leased.remove(conn);
+      }
+      if (entry == null)
+         return;
+
+      boolean reusable;
+      try{
+         if (!conn.getAutoCommit()){
+            conn.rollback();
+            conn.setAutoCommit(true);
+         }
+         reusable = !conn.isClosed();
+      }catch (SQLException e){
+         reusable = false;
+      }
+
+      if (!reusable){
+         discard(entry);
+         return;
+      }
+      entry.lastUsed = System.currentTimeMillis();
+      synchronized (this){
+         if (this.closed){
+            closeQuietly(entry);
+            --this.total;
+         }else{
+            this.idle.addFirst(entry);
+         }
+         this.notifyAll();
+      }
+   }//end release
+
+   /**
+    * Closes every idle connection and refuses further borrows.  Connections
+    * that are still leased are closed as they are released.
+    */
+   public void close() {
+      this.evictor.cancel();
+      List<Entry> toClose;
+      synchronized (this){
+         this.closed = true;
+         toClose = new ArrayList<Entry>(this.idle);
+         this.total -= this.idle.size();
+         this.idle.clear();
+         this.notifyAll();
+      }
+      for (Entry e : toClose)
+         closeQuietly(e);
+   }//end close
+
+   public synchronized int getActiveCount() { return this.leased.size(); }
+   public synchronized int getIdleCount() { return this.idle.size(); }
+   public synchronized int getTotalCount() { return this.total; }
+   public int getMinSize() { return this.minSize; }
+   public int getMaxSize() { return this.maxSize; }
+   public long getBorrowCount() { return this.borrowCount.get(); }
+   public long getWaitCount() { return this.waitCount.get(); }
+   public long getTotalWaitMillis() { return this.waitNanos.get() / 1000000L; }
+   public long getCreatedCount() { return this.createdCount.get(); }
+   public long getEvictedCount() { return this.evictedCount.get(); }
+   public long getValidationFailures() { return this.validationFailures.get(); }
+   public long getStatementCacheHits() { return this.statementHits.get(); }
+   public long getStatementCacheMisses() { return this.statementMisses.get(); }
+   public long getServerPreparedCount() { return this.statementsServerPrepared.get(); }
+
+   public String toString() {
+      return "ConnectionPool[active=" + getActiveCount()
+         + ", idle=" + getIdleCount()
+         + ", borrows=" + getBorrowCount()
+         + ", waits=" + getWaitCount()
+         + ", waitMs=" + getTotalWaitMillis()
+         + ", created=" + getCreatedCount()
+         + ", evicted=" + getEvictedCount()
+         + ", stmtHits=" + getStatementCacheHits()
+         + ", stmtMisses=" + getStatementCacheMisses()
+         + ", serverPrepared=" + getServerPreparedCount() + "]";
+   }//end toString
+
+   private Entry newEntry() throws SQLException {
+      Connection conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+      this.createdCount.incrementAndGet();
+      return new Entry(conn, new StatementCache(conn, this.statementCacheSize,
+         this.statementHits, this.statementMisses, this.statementsServerPrepared, this.serverPrepare));
+   }//end newEntry
+
+   // the bundled driver predates Connection.isValid, so ping with a query.
+   private boolean isValid(Entry entry) {
+      if (System.currentTimeMillis() - entry.lastUsed < this.validationIntervalMillis)
+         return true;
+      try{
+         Statement stmt = entry.connection.createStatement ();
+         try{
+            ResultSet rs = stmt.executeQuery ("SELECT 1");
+            return rs.next();
+         }finally{
+            stmt.close ();
+         }
+      }catch (SQLException e){
+         return false;
+      }
+   }//end isValid
+
+   private void discard(Entry entry) {
+      closeQuietly(entry);
+      synchronized (this){
+         --this.total;
+         this.notifyAll();
+      }
+   }//end discard
+
+   // closes connections that have been idle too long, keeping minSize open.
+   private void evictIdle() {
+      long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+      List<Entry> toClose = new ArrayList<Entry>();
+      synchronized (this){
+         // the oldest connections are at the tail of the deque.
+         Iterator<Entry> it = this.idle.descendingIterator();
+         while (it.hasNext() && this.total - toClose.size() > this.minSize){
+            Entry e = it.next();
+            if (e.lastUsed >= cutoff)
+               break;
+            it.remove();
+            toClose.add(e);
+         }//end while
+         this.total -= toClose.size();
+      }
+      for (Entry e : toClose){
+         closeQuietly(e);
+         this.evictedCount.incrementAndGet();
+      }
+   }//end evictIdle
+
+   private static void closeQuietly(Entry entry) {
+      entry.statements.close();
+      try{
+         entry.connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }//end closeQuietly
+
+}//end ConnectionPool
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal CSV helpers for the files under data/: comma separated, fields
+ * optionally wrapped in double quotes with "" as an escaped quote.  Quoted
+ * fields may not span lines.
+ *
+ */
+public final class Csv {
+
+   private Csv() {
+   }
+
+   /**
+    * Splits one CSV line into its fields.
+    *
+    * @param line a line without its line terminator
+    * @return the unquoted field values
+    */
+   public static String[] split(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '"'){
+               if (i + 1 < line.length() && line.charAt(i + 1) == '"'){
+                  field.append('"');
+                  ++i;
+               }else{
+                  quoted = false;
+               }
+            }else{
+               field.append(c);
+            }
+         }else if (c == '"'){
+            quoted = true;
+         }else if (c == ','){
+            fields.add(field.toString());
+            field.setLength(0);
+         }else{
+            field.append(c);
+         }
+      }//end for
+      fields.add(field.toString());
+      return fields.toArray(new String[fields.size()]);
+   }//end split
+
+   /**
+    * Appends value to out as a CSV field, quoting it only when needed.
+    */
+   public static void append(StringBuilder out, String value) {
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0){
+         out.append(value);
+         return;
+      }
+      out.append('"');
+      for (int i = 0; i < value.length(); ++i){
+         char c = value.charAt(i);
+         if (c == '"')
+            out.append('"');
+         out.append(c);
+      }//end for
+      out.append('"');
+   }//end append
+
+   /**
+    * @return the position of the named column in a header row, ignoring
+    *         case, or -1 if it is missing
+    */
+   public static int column(String[] header, String name) {
+      for (int i = 0; i < header.length; ++i){
+         if (header[i].trim().equalsIgnoreCase(name))
+            return i;
+      }//end for
+      return -1;
+   }//end column
+
+}//end Csv
@@ -0,0 +1,403 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a referentially valid synthetic data set in the layout of data/,
+ * ready for DataLoader.  Sizes grow linearly with the scale factor; scale
+ * 100 gives 1M users, 50k stores, 5M products and 100M orders.  Stores
+ * and customers are clustered around shared city centres, product
+ * popularity and customer activity follow Zipf distributions, and every
+ * table draws from its own seeded generator, so the same seed always
+ * produces the same files.  Rows are streamed to disk and each table is
+ * written by its own thread, so memory use does not depend on the scale.
+ *
+ */
+public class DataGenerator {
+
+   static final int PRODUCTS_PER_STORE = 100;
+   static final String[] PRODUCT_NAMES = {
+      "7up", "Pepsi", "Lemonade", "Coke", "Orange Juice", "Apple Juice", "Water",
+      "Milk", "Bread", "Eggs", "Butter", "Cheese", "Yogurt", "Coffee", "Tea",
+      "Chips", "Cookies", "Cereal", "Rice", "Pasta",
+   };
+
+   private final File dir;
+   private final long seed;
+   private final int users;
+   private final int stores;
+   private final int managers;
+   private final int warehouses;
+   private final long orders;
+   private final int supplyRequests;
+   private final int productUpdates;
+   // city centres shared by stores and customers.
+   private final double[] cityLat;
+   private final double[] cityLon;
+
+   /**
+    * @param dir directory the CSV files are written to
+    * @param scale scale factor; 1 gives 10k users, 500 stores, 1M orders
+    * @param seed seed of all random choices
+    */
+   public DataGenerator(File dir, double scale, long seed) {
+      this.dir = dir;
+      this.seed = seed;
+      this.stores = Math.max(1, (int) (500 * scale));
+      this.managers = Math.max(1, this.stores / 4);
+      this.users = Math.max(this.managers + 2, (int) (10000 * scale));
+      this.warehouses = Math.max(1, (int) (100 * scale));
+      this.orders = Math.max(1L, (long) (1000000L * scale));
+      this.supplyRequests = Math.max(1, (int) (10000 * scale));
+      this.productUpdates = Math.max(1, (int) (50000 * scale));
+
+      Random random = new Random(seed);
+      int cities = Math.max(1, this.stores / 200);
+      this.cityLat = new double[cities];
+      this.cityLon = new double[cities];
+      for (int i = 0; i < cities; ++i){
+         this.cityLat[i] = 5 + random.nextDouble() * 90;
+         this.cityLon[i] = 5 + random.nextDouble() * 90;
+      }//end for
+   }//end DataGenerator
+
+   /**
+    * Writes all seven files in parallel.
+    *
+    * @throws java.lang.Exception when a file can not be written
+    */
+   public void generate() throws Exception {
+      if (!this.dir.isDirectory() && !this.dir.mkdirs())
+         throw new IOException("Can not create " + this.dir);
+      long start = System.currentTimeMillis();
+      List<Callable<Long>> tables = new ArrayList<Callable<Long>>();
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeUsers(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeStores(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeWarehouses(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeProducts(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeOrders(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeSupplyRequests(); } });
+      tables.add(new Callable<Long>() { public Long call() throws IOException { return writeProductUpdates(); } });
+
+      ExecutorService workers = Executors.newFixedThreadPool(
+         Math.min(tables.size(), Runtime.getRuntime().availableProcessors()));
+      long rows = 0;
+      try{
+         for (Future<Long> table : workers.invokeAll(tables))
+            rows += table.get();
+      }finally{
+         workers.shutdown();
+      }
+      long millis = Math.max(System.currentTimeMillis() - start, 1);
+      System.out.println(String.format("Wrote %d rows to %s in %.1f s",
+         rows, this.dir, millis / 1000.0));
+   }//end generate
+
+   // userID 1 is the admin, the next managers IDs are managers.
+   long writeUsers() throws IOException {
+      Random random = tableRandom(1);
+      Writer out = open("users.csv", "userID,name,password,latitude,longitude,type");
+      StringBuilder row = new StringBuilder(96);
+      try{
+         for (int id = 1; id <= this.users; ++id){
+            String type = id == 1 ? "admin" : id <= 1 + this.managers ? "manager" : "customer";
+            int city = random.nextInt(this.cityLat.length);
+            row.setLength(0);
+            row.append(id).append(",user").append(id).append(',');
+            appendPassword(row, random);
+            row.append(',').append(coordinate(this.cityLat[city], 5, random));
+            row.append(',').append(coordinate(this.cityLon[city], 5, random));
+            row.append(',').append(type).append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.users;
+   }//end writeUsers
+
+   long writeStores() throws IOException {
+      Random random = tableRandom(2);
+      Writer out = open("stores.csv", "storeID,name,latitude,longitude,managerID,dateEstablished");
+      StringBuilder row = new StringBuilder(96);
+      try{
+         for (int id = 1; id <= this.stores; ++id){
+            int city = random.nextInt(this.cityLat.length);
+            row.setLength(0);
+            row.append(id).append(',');
+            for (int i = 0; i < 4; ++i)
+               row.append((char) ('a' + random.nextInt(26)));
+            row.append(',').append(coordinate(this.cityLat[city], 3, random));
+            row.append(',').append(coordinate(this.cityLon[city], 3, random));
+            row.append(',').append(managerOf(id));
+            row.append(',').append(1 + random.nextInt(12)).append('/')
+               .append(1 + random.nextInt(28)).append('/')
+               .append(1950 + random.nextInt(70)).append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.stores;
+   }//end writeStores
+
+   long writeWarehouses() throws IOException {
+      Random random = tableRandom(3);
+      Writer out = open("warehouse.csv", "wareHouseID,area,latitude,longitude");
+      StringBuilder row = new StringBuilder(64);
+      try{
+         for (int id = 1; id <= this.warehouses; ++id){
+            int city = random.nextInt(this.cityLat.length);
+            row.setLength(0);
+            row.append(id).append(',').append(5000 + random.nextInt(45000));
+            row.append(',').append(coordinate(this.cityLat[city], 8, random));
+            row.append(',').append(coordinate(this.cityLon[city], 8, random)).append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.warehouses;
+   }//end writeWarehouses
+
+   // every store carries the same PRODUCTS_PER_STORE product names.
+   long writeProducts() throws IOException {
+      Random random = tableRandom(4);
+      Writer out = open("products.csv", "storeID,productName,numberOfUnits,pricePerUnit");
+      StringBuilder row = new StringBuilder(64);
+      try{
+         for (int store = 1; store <= this.stores; ++store){
+            for (int p = 0; p < PRODUCTS_PER_STORE; ++p){
+               row.setLength(0);
+               row.append(store).append(',');
+               Csv.append(row, productName(p));
+               row.append(',').append(random.nextInt(1000));
+               row.append(',').append(1 + random.nextInt(20)).append('\n');
+               out.append(row);
+            }//end for
+         }//end for
+      }finally{
+         out.close();
+      }
+      return (long) this.stores * PRODUCTS_PER_STORE;
+   }//end writeProducts
+
+   long writeOrders() throws IOException {
+      Random random = tableRandom(5);
+      int firstCustomer = 2 + this.managers;
+      Zipf product = new Zipf(PRODUCTS_PER_STORE, 1.1);
+      Zipf customer = new Zipf(this.users - firstCustomer + 1, 0.8);
+      Zipf store = new Zipf(this.stores, 0.5);
+      SimpleDateFormat format = timestampFormat();
+      long from = 1451606400000L; // 2016-01-01
+      long span = 3L * 365 * 24 * 3600 * 1000;
+      Writer out = open("orders.csv", "orderNumber,customerID,storeID,productName,unitsOrdered,orderTime");
+      StringBuilder row = new StringBuilder(96);
+      try{
+         for (long id = 1; id <= this.orders; ++id){
+            row.setLength(0);
+            row.append(id).append(',').append(firstCustomer - 1 + customer.sample(random));
+            row.append(',').append(store.sample(random)).append(',');
+            Csv.append(row, productName(product.sample(random) - 1));
+            row.append(',').append(1 + random.nextInt(10));
+            row.append(',').append(format.format(new Date(from + (long) (random.nextDouble() * span))));
+            row.append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.orders;
+   }//end writeOrders
+
+   long writeSupplyRequests() throws IOException {
+      Random random = tableRandom(6);
+      Writer out = open("productSupplyRequests.csv",
+         "requestNumber,managerID,warehouseID,storeID,productName,unitsRequested");
+      StringBuilder row = new StringBuilder(96);
+      try{
+         for (int id = 1; id <= this.supplyRequests; ++id){
+            int store = 1 + random.nextInt(this.stores);
+            row.setLength(0);
+            row.append(id).append(',').append(managerOf(store));
+            row.append(',').append(1 + random.nextInt(this.warehouses));
+            row.append(',').append(store).append(',');
+            Csv.append(row, productName(random.nextInt(PRODUCTS_PER_STORE)));
+            row.append(',').append(1 + random.nextInt(100)).append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.supplyRequests;
+   }//end writeSupplyRequests
+
+   long writeProductUpdates() throws IOException {
+      Random random = tableRandom(7);
+      SimpleDateFormat format = timestampFormat();
+      long from = 1451606400000L;
+      long span = 3L * 365 * 24 * 3600 * 1000;
+      Writer out = open("productUpdates.csv", "updateNumber,managerID,storeID,productName,updatedOn");
+      StringBuilder row = new StringBuilder(96);
+      try{
+         for (int id = 1; id <= this.productUpdates; ++id){
+            int store = 1 + random.nextInt(this.stores);
+            row.setLength(0);
+            row.append(id).append(',').append(managerOf(store));
+            row.append(',').append(store).append(',');
+            Csv.append(row, productName(random.nextInt(PRODUCTS_PER_STORE)));
+            row.append(',').append(format.format(new Date(from + (long) (random.nextDouble() * span))));
+            row.append('\n');
+            out.append(row);
+         }//end for
+      }finally{
+         out.close();
+      }
+      return this.productUpdates;
+   }//end writeProductUpdates
+
+   private int managerOf(int storeID) {
+      return 2 + (storeID - 1) % this.managers;
+   }//end managerOf
+
+   static String productName(int p) {
+      String base = PRODUCT_NAMES[p % PRODUCT_NAMES.length];
+      int series = p / PRODUCT_NAMES.length;
+      return series == 0 ? base : base + " " + (series + 1);
+   }//end productName
+
+   private Random tableRandom(int table) {
+      return new Random(this.seed * 31 + table);
+   }//end tableRandom
+
+   private Writer open(String file, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(
+         new FileOutputStream(new File(this.dir, file)), "UTF-8"), 1 << 20);
+      out.write(header);
+      out.write('\n');
+      return out;
+   }//end open
+
+   private static SimpleDateFormat timestampFormat() {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format;
+   }//end timestampFormat
+
+   // largest coordinate that still fits decimal(8,6) after rounding to
+   // five places.
+   static final double MAX_COORDINATE = 99.99999;
+
+   // a point scattered around centre, kept inside [0, MAX_COORDINATE].
+   private static String coordinate(double centre, double spread, Random random) {
+      double v = centre + random.nextGaussian() * spread;
+      v = Math.max(0, Math.min(MAX_COORDINATE, v));
+      return String.format(Locale.ROOT, "%.5f", v);
+   }//end coordinate
+
+   private static void appendPassword(StringBuilder row, Random random) {
+      for (int i = 0; i < 8; ++i)
+         row.append((char) ('a' + random.nextInt(26)));
+   }//end appendPassword
+
+   /**
+    * Zipf distribution over 1..n sampled by rejection-inversion (Hormann
+    * and Derflinger), which needs no per-element tables.
+    */
+   static class Zipf {
+      private final int n;
+      private final double s;
+      private final double hIntegralX1;
+      private final double hIntegralN;
+      private final double sParam;
+
+      Zipf(int n, double s) {
+         this.n = n;
+         this.s = s;
+         this.hIntegralX1 = hIntegral(1.5) - 1;
+         this.hIntegralN = hIntegral(n + 0.5);
+         this.sParam = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+      }
+
+      int sample(Random random) {
+         while (true){
+            double u = this.hIntegralN + random.nextDouble() * (this.hIntegralX1 - this.hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1)
+               k = 1;
+            else if (k > this.n)
+               k = this.n;
+            if (k - x <= this.sParam || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }//end while
+      }
+
+      private double h(double x) {
+         return Math.exp(-this.s * Math.log(x));
+      }
+
+      private double hIntegral(double x) {
+         double logX = Math.log(x);
+         return helper2((1 - this.s) * logX) * logX;
+      }
+
+      private double hIntegralInverse(double x) {
+         double t = x * (1 - this.s);
+         if (t < -1)
+            t = -1;
+         return Math.exp(helper1(t) * x);
+      }
+
+      // log(1 + x) / x, stable near 0.
+      private static double helper1(double x) {
+         if (Math.abs(x) > 1e-8)
+            return Math.log1p(x) / x;
+         return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+      }
+
+      // (exp(x) - 1) / x, stable near 0.
+      private static double helper2(double x) {
+         if (Math.abs(x) > 1e-8)
+            return Math.expm1(x) / x;
+         return 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+      }
+   }//end Zipf
+
+   /**
+    * Generates a data set.
+    *
+    * @param args outputDir scale [seed]
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <outputDir> <scale> [seed]");
+         return;
+      }//end if
+      try{
+         long seed = args.length > 2 ? Long.parseLong(args[2]) : 166L;
+         new DataGenerator(new File(args[0]), Double.parseDouble(args[1]), seed).generate();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the CSV files of a data directory (data/ by default) into the
+ * tables of sql/src/create_tables.sql from the client side, so it needs
+ * neither absolute server paths nor superuser file access.  Tables that
+ * do not depend on each other are loaded in parallel, one stage at a
+ * time in foreign key order:
+ *
+ *    Users -> Store, Warehouse -> Product
+ *          -> Orders, ProductSupplyRequests, ProductUpdates
+ *
+ * Rows are sent as multi-row INSERTs of up to retail.load.rowsPerStatement
+ * rows and committed every retail.load.rowsPerCommit rows.  Afterwards the
+ * serial sequences are moved past the largest loaded ID.
+ *
+ */
+public class DataLoader {
+
+   // how one table is read from its file.
+   static class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      // SQL expression for each column's value, with ? for the CSV field.
+      final String[] values;
+      final String sequence;
+      final String sequenceColumn;
+
+      Table(String name, String file, String[] columns, String[] values,
+            String sequence, String sequenceColumn) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.values = values;
+         this.sequence = sequence;
+         this.sequenceColumn = sequenceColumn;
+      }
+   }//end Table
+
+   static final String INT = "cast(? as integer)";
+   static final String NUM = "cast(? as numeric)";
+   static final String FLOAT = "cast(? as float)";
+   static final String TEXT = "cast(? as text)";
+   static final String DATE = "to_date(?, 'MM/DD/YYYY')";
+   static final String TIME = "cast(? as timestamp)";
+   static final String TIMESTAMPTZ = "cast(? as timestamptz)";
+
+   static final Table USERS = new Table("Users", "users.csv",
+      new String[] { "userID", "name", "password", "latitude", "longitude", "type" },
+      new String[] { INT, TEXT, TEXT, NUM, NUM, TEXT },
+      "users_userID_seq", "userID");
+   static final Table STORE = new Table("Store", "stores.csv",
+      new String[] { "storeID", "name", "latitude", "longitude", "managerID", "dateEstablished" },
+      new String[] { INT, TEXT, NUM, NUM, INT, DATE },
+      null, null);
+   static final Table WAREHOUSE = new Table("Warehouse", "warehouse.csv",
+      new String[] { "WarehouseID", "area", "latitude", "longitude" },
+      new String[] { INT, INT, NUM, NUM },
+      null, null);
+   static final Table PRODUCT = new Table("Product", "products.csv",
+      new String[] { "storeID", "productName", "numberOfUnits", "pricePerUnit" },
+      new String[] { INT, TEXT, INT, FLOAT },
+      null, null);
+   static final Table ORDERS = new Table("Orders", "orders.csv",
+      new String[] { "orderNumber", "customerID", "storeID", "productName", "unitsOrdered", "orderTime" },
+      new String[] { INT, INT, INT, TEXT, INT, TIMESTAMPTZ },
+      "orders_orderNumber_seq", "orderNumber");
+   static final Table SUPPLY_REQUESTS = new Table("ProductSupplyRequests", "productSupplyRequests.csv",
+      new String[] { "requestNumber", "managerID", "warehouseID", "storeID", "productName", "unitsRequested" },
+      new String[] { INT, INT, INT, INT, TEXT, INT },
+      "productsupplyrequests_requestNumber_seq", "requestNumber");
+   static final Table PRODUCT_UPDATES = new Table("ProductUpdates", "productUpdates.csv",
+      new String[] { "updateNumber", "managerID", "storeID", "productName", "updatedOn" },
+      new String[] { INT, INT, INT, TEXT, TIME },
+      "productupdates_updateNumber_seq", "updateNumber");
+
+   // tables within a stage only reference tables of earlier stages.
+   static final Table[][] STAGES = {
+      { USERS },
+      { STORE, WAREHOUSE },
+      { PRODUCT },
+      { ORDERS, SUPPLY_REQUESTS, PRODUCT_UPDATES },
+   };
+
+   private final Retail esql;
+   private final File dir;
+   private final int rowsPerStatement;
+   private final int rowsPerCommit;
+
+   public DataLoader(Retail esql, File dir) {
+      this.esql = esql;
+      this.dir = dir;
+      this.rowsPerStatement = Integer.getInteger("retail.load.rowsPerStatement", 500);
+      this.rowsPerCommit = Integer.getInteger("retail.load.rowsPerCommit", 50000);
+   }//end DataLoader
+
+   /**
+    * Loads every table whose file exists in the data directory.
+    *
+    * @throws java.lang.Exception when a table fails to load
+    */
+   public void loadAll() throws Exception {
+      long start = System.currentTimeMillis();
+      long rows = 0;
+      ExecutorService workers = Executors.newFixedThreadPool(3);
+      try{
+         for (Table[] stage : STAGES){
+            List<Future<Long>> loads = new ArrayList<Future<Long>>();
+            for (final Table table : stage){
+               if (!new File(this.dir, table.file).isFile()){
+                  System.out.println(table.name + ": " + table.file + " not found, skipped");
+                  continue;
+               }
+               loads.add(workers.submit(new Callable<Long>() {
+                  public Long call() throws Exception {
+                     return load(table);
+                  }
+               }));
+            }//end for
+            // finish the stage before anything that references it starts.
+            for (Future<Long> load : loads)
+               rows += load.get();
+         }//end for
+      }finally{
+         workers.shutdown();
+         this.esql.getCatalogCache().invalidateAll();
+         this.esql.getReferenceCache().invalidate();
+      }
+      long millis = Math.max(System.currentTimeMillis() - start, 1);
+      System.out.println(String.format("Loaded %d rows in %.1f s (%.0f rows/s)",
+         rows, millis / 1000.0, rows * 1000.0 / millis));
+   }//end loadAll
+
+   /**
+    * Streams one CSV file into its table and resets the table's sequence.
+    *
+    * @return the number of rows loaded
+    */
+   long load(Table table) throws IOException, SQLException {
+      long start = System.currentTimeMillis();
+      BufferedReader reader = new BufferedReader(new FileReader(new File(this.dir, table.file)));
+      ConnectionPool pool = this.esql.getConnectionPool();
+      Connection conn = pool.borrow();
+      long rows = 0;
+      try{
+         conn.setAutoCommit(false);
+         String headerLine = reader.readLine();
+         if (headerLine == null)
+            return 0;
+         int[] fieldOf = mapColumns(table, Csv.split(headerLine));
+
+         PreparedStatement full = conn.prepareStatement(insertSql(table, this.rowsPerStatement));
+         try{
+            String[][] pending = new String[this.rowsPerStatement][];
+            int count = 0;
+            long uncommitted = 0;
+            String line;
+            while ((line = reader.readLine()) != null){
+               if (line.trim().isEmpty())
+                  continue;
+               pending[count++] = Csv.split(line);
+               if (count == pending.length){
+                  bindRows(full, fieldOf, pending, count);
+                  full.executeUpdate();
+                  rows += count;
+                  uncommitted += count;
+                  count = 0;
+                  if (uncommitted >= this.rowsPerCommit){
+                     conn.commit();
+                     uncommitted = 0;
+                  }
+               }
+            }//end while
+            if (count > 0){
+               PreparedStatement tail = conn.prepareStatement(insertSql(table, count));
+               try{
+                  bindRows(tail, fieldOf, pending, count);
+                  tail.executeUpdate();
+                  rows += count;
+               }finally{
+                  tail.close();
+               }
+            }
+         }finally{
+            full.close();
+         }
+
+         if (table.sequence != null){
+            Statement stmt = conn.createStatement();
+            try{
+               stmt.executeQuery("SELECT setval('" + table.sequence + "', coalesce(max("
+                  + table.sequenceColumn + "), 0) + 1, false) FROM " + table.name).close();
+            }finally{
+               stmt.close();
+            }
+         }
+         conn.commit();
+      }finally{
+         reader.close();
+         pool.release(conn);
+      }
+      long millis = Math.max(System.currentTimeMillis() - start, 1);
+      System.out.println(String.format("%-22s %10d rows %8.1f s %10.0f rows/s",
+         table.name, rows, millis / 1000.0, rows * 1000.0 / millis));
+      return rows;
+   }//end load
+
+   // position of each table column in the CSV header.
+   private static int[] mapColumns(Table table, String[] header) throws IOException {
+      int[] fieldOf = new int[table.columns.length];
+      for (int c = 0; c < table.columns.length; ++c){
+         fieldOf[c] = Csv.column(header, table.columns[c]);
+         if (fieldOf[c] < 0)
+            throw new IOException(table.file + ": missing column " + table.columns[c]);
+      }//end for
+      return fieldOf;
+   }//end mapColumns
+
+   static String insertSql(Table table, int rows) {
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.name).append(" (");
+      for (int c = 0; c < table.columns.length; ++c)
+         sql.append(c > 0 ? ", " : "").append(table.columns[c]);
+      sql.append(") VALUES ");
+      for (int r = 0; r < rows; ++r){
+         sql.append(r > 0 ? ", (" : "(");
+         for (int c = 0; c < table.values.length; ++c)
+            sql.append(c > 0 ? ", " : "").append(table.values[c]);
+         sql.append(')');
+      }//end for
+      return sql.toString();
+   }//end insertSql
+
+   private static void bindRows(PreparedStatement stmt, int[] fieldOf, String[][] rows, int count) throws SQLException {
+      int p = 1;
+      for (int r = 0; r < count; ++r){
+         String[] fields = rows[r];
+         for (int c = 0; c < fieldOf.length; ++c){
+            String v = fieldOf[c] < fields.length ? fields[fieldOf[c]].trim() : "";
+            if (v.isEmpty())
+               stmt.setNull(p++, java.sql.Types.VARCHAR);
+            else
+               stmt.setString(p++, v);
+         }//end for
+      }//end for
+   }//end bindRows
+
+   /**
+    * Loads a data directory into the database.
+    *
+    * @param args dbname port user [dataDir]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataLoader.class.getName () +
+            " <dbname> <port> <user> [dataDir]");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         esql = new Retail (args[0], args[1], args[2], "");
+         File dir = new File(args.length > 3 ? args[3] : "data");
+         new DataLoader(esql, dir).loadAll();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end DataLoader
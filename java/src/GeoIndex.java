@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/**
+ * Immutable uniform-grid index over a set of latitude/longitude points.
+ * Each point carries an integer id and an optional display name.  Points
+ * are bucketed into grid cells stored in flat primitive arrays, so radius
+ * and k-nearest queries only look at the cells around the query point.
+ * Distances use Retail.calculateDistance, the same metric as the screens.
+ *
+ */
+public class GeoIndex {
+
+   private final int[] ids;
+   private final String[] names;
+   private final double[] lat;
+   private final double[] lon;
+
+   private final double minLat;
+   private final double minLon;
+   private final double cellSize;
+   private final int rows;
+   private final int cols;
+   // points of cell c are cellItems[cellStart[c] .. cellStart[c + 1]).
+   private final int[] cellStart;
+   private final int[] cellItems;
+
+   /**
+    * Builds the index.  The arrays are owned by the index afterwards.
+    *
+    * @param ids the id of each point
+    * @param names the display name of each point, or null
+    * @param lat the latitude of each point
+    * @param lon the longitude of each point
+    */
+   public GeoIndex(int[] ids, String[] names, double[] lat, double[] lon) {
+      int n = ids.length;
+      if (lat.length != n || lon.length != n || (names != null && names.length != n))
+         throw new IllegalArgumentException("Point arrays differ in length");
+      this.ids = ids;
+      this.names = names;
+      this.lat = lat;
+      this.lon = lon;
+
+      double loLat = Double.MAX_VALUE, hiLat = -Double.MAX_VALUE;
+      double loLon = Double.MAX_VALUE, hiLon = -Double.MAX_VALUE;
+      for (int i = 0; i < n; ++i){
+         loLat = Math.min(loLat, lat[i]);
+         hiLat = Math.max(hiLat, lat[i]);
+         loLon = Math.min(loLon, lon[i]);
+         hiLon = Math.max(hiLon, lon[i]);
+      }//end for
+      if (n == 0){
+         loLat = hiLat = loLon = hiLon = 0;
+      }
+      this.minLat = loLat;
+      this.minLon = loLon;
+
+      // aim for a couple of points per cell.
+      double extent = Math.max(Math.max(hiLat - loLat, hiLon - loLon), 1e-9);
+      int perAxis = Math.max(1, (int) Math.ceil(Math.sqrt(n / 2.0)));
+      this.cellSize = extent / perAxis;
+      this.rows = cellOf(hiLat, loLat) + 1;
+      this.cols = cellOf(hiLon, loLon) + 1;
+
+      // counting sort of the points into their cells.
+      int cells = this.rows * this.cols;
+      this.cellStart = new int[cells + 1];
+      int[] cellOfPoint = new int[n];
+      for (int i = 0; i < n; ++i){
+         cellOfPoint[i] = cellOf(lat[i], loLat) * this.cols + cellOf(lon[i], loLon);
+         ++this.cellStart[cellOfPoint[i] + 1];
+      }//end for
+      for (int c = 0; c < cells; ++c)
+         this.cellStart[c + 1] += this.cellStart[c];
+      this.cellItems = new int[n];
+      int[] fill = Arrays.copyOf(this.cellStart, cells);
+      for (int i = 0; i < n; ++i)
+         this.cellItems[fill[cellOfPoint[i]]++] = i;
+   }//end GeoIndex
+
+   public int size() { return this.ids.length; }
+   public int getId(int pos) { return this.ids[pos]; }
+   public String getName(int pos) { return this.names == null ? null : this.names[pos]; }
+   public double getLatitude(int pos) { return this.lat[pos]; }
+   public double getLongitude(int pos) { return this.lon[pos]; }
+
+   /**
+    * Finds the points strictly closer than radius to the given location.
+    *
+    * @return positions of the matching points, nearest first
+    */
+   public int[] withinRadius(double qLat, double qLon, double radius) {
+      int r0 = clampRow(cellOf(qLat - radius, this.minLat));
+      int r1 = clampRow(cellOf(qLat + radius, this.minLat));
+      int c0 = clampCol(cellOf(qLon - radius, this.minLon));
+      int c1 = clampCol(cellOf(qLon + radius, this.minLon));
+
+      int[] found = new int[8];
+      double[] dist = new double[8];
+      int count = 0;
+      for (int r = r0; r <= r1; ++r){
+         for (int c = c0; c <= c1; ++c){
+            int cell = r * this.cols + c;
+            for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; ++k){
+               int p = this.cellItems[k];
+               double d = Retail.calculateDistance(qLat, qLon, this.lat[p], this.lon[p]);
+               if (d < radius){
+                  if (count == found.length){
+                     found = Arrays.copyOf(found, count * 2);
+                     dist = Arrays.copyOf(dist, count * 2);
+                  }
+                  found[count] = p;
+                  dist[count] = d;
+                  ++count;
+               }
+            }//end for
+         }
+      }//end for
+      sortByDistance(found, dist, count);
+      return Arrays.copyOf(found, count);
+   }//end withinRadius
+
+   /**
+    * Finds the k points nearest to the given location by searching rings
+    * of cells outwards until no unvisited cell can hold a closer point.
+    *
+    * @return positions of up to k points, nearest first
+    */
+   public int[] nearest(double qLat, double qLon, int k) {
+      k = Math.min(k, size());
+      int[] best = new int[k];
+      double[] bestDist = new double[k];
+      int count = 0;
+      if (k == 0)
+         return best;
+
+      int qr = cellOf(qLat, this.minLat);
+      int qc = cellOf(qLon, this.minLon);
+      int maxRing = Math.max(Math.max(qr, this.rows - 1 - qr), Math.max(qc, this.cols - 1 - qc));
+      for (int ring = 0; ring <= maxRing; ++ring){
+         // every point in this ring or beyond is at least this far away.
+         if (count == k && ringDistance(qLat, qLon, qr, qc, ring) >= bestDist[k - 1])
+            break;
+         for (int r = qr - ring; r <= qr + ring; ++r){
+            if (r < 0 || r >= this.rows)
+               continue;
+            boolean edgeRow = (r == qr - ring || r == qr + ring);
+            int step = edgeRow ? 1 : 2 * ring;
+            for (int c = qc - ring; c <= qc + ring; c += Math.max(step, 1)){
+               if (c < 0 || c >= this.cols)
+                  continue;
+               int cell = r * this.cols + c;
+               for (int i = this.cellStart[cell]; i < this.cellStart[cell + 1]; ++i){
+                  int p = this.cellItems[i];
+                  double d = Retail.calculateDistance(qLat, qLon, this.lat[p], this.lon[p]);
+                  if (count < k){
+                     best[count] = p;
+                     bestDist[count] = d;
+                     ++count;
+                     insertionSort(best, bestDist, 0, count - 1);
+                  }else if (d < bestDist[k - 1]){
+                     best[k - 1] = p;
+                     bestDist[k - 1] = d;
+                     insertionSort(best, bestDist, 0, k - 1);
+                  }
+               }//end for
+            }//end for
+         }//end for
+      }//end for
+      return Arrays.copyOf(best, count);
+   }//end nearest
+
+   private int cellOf(double v, double origin) {
+      return (int) Math.floor((v - origin) / this.cellSize);
+   }//end cellOf
+
+   private int clampRow(int r) { return Math.max(0, Math.min(this.rows - 1, r)); }
+   private int clampCol(int c) { return Math.max(0, Math.min(this.cols - 1, c)); }
+
+   // lower bound on the distance from the query point to any cell of the ring.
+   private double ringDistance(double qLat, double qLon, int qr, int qc, int ring) {
+      if (ring == 0)
+         return 0;
+      double cellLat0 = this.minLat + qr * this.cellSize;
+      double cellLon0 = this.minLon + qc * this.cellSize;
+      double toEdge = Math.min(
+         Math.min(qLat - cellLat0, cellLat0 + this.cellSize - qLat),
+         Math.min(qLon - cellLon0, cellLon0 + this.cellSize - qLon));
+      return Math.max(0, toEdge) + (ring - 1) * this.cellSize;
+   }//end ringDistance
+
+   // quicksort of pos by dist; a wide radius can match most of the index.
+   private static void sortByDistance(int[] pos, double[] dist, int count) {
+      quickSort(pos, dist, 0, count - 1);
+   }//end sortByDistance
+
+   private static void quickSort(int[] pos, double[] dist, int lo, int hi) {
+      while (hi - lo > 16){
+         int mid = (lo + hi) >>> 1;
+         if (dist[mid] < dist[lo]) swap(pos, dist, mid, lo);
+         if (dist[hi] < dist[lo]) swap(pos, dist, hi, lo);
+         if (dist[hi] < dist[mid]) swap(pos, dist, hi, mid);
+         double pivot = dist[mid];
+         int i = lo;
+         int j = hi;
+         while (i <= j){
+            while (dist[i] < pivot) ++i;
+            while (dist[j] > pivot) --j;
+            if (i <= j)
+               swap(pos, dist, i++, j--);
+         }//end while
+         // recurse into the smaller half, loop on the larger.
+         if (j - lo < hi - i){
+            quickSort(pos, dist, lo, j);
+            lo = i;
+         }else{
+            quickSort(pos, dist, i, hi);
+            hi = j;
+         }
+      }//end while
+      insertionSort(pos, dist, lo, hi);
+   }//end quickSort
+
+   // insertion sort of pos[lo..hi]; cheap for short or nearly sorted runs.
+   private static void insertionSort(int[] pos, double[] dist, int lo, int hi) {
+      for (int i = lo + 1; i <= hi; ++i){
+         int p = pos[i];
+         double d = dist[i];
+         int j = i - 1;
+         while (j >= lo && dist[j] > d){
+            pos[j + 1] = pos[j];
+            dist[j + 1] = dist[j];
+            --j;
+         }
+         pos[j + 1] = p;
+         dist[j + 1] = d;
+      }//end for
+   }//end insertionSort
+
+   private static void swap(int[] pos, double[] dist, int a, int b) {
+      int p = pos[a];
+      pos[a] = pos[b];
+      pos[b] = p;
+      double d = dist[a];
+      dist[a] = dist[b];
+      dist[b] = d;
+   }//end swap
+
+}//end GeoIndex
@@ -0,0 +1,96 @@
+import java.sql.SQLException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Folds the inventory ledger into Product.numberOfUnits every
+ * retail.inventory.compactSec (60) seconds, retail.inventory.compactBatch
+ * (10000) movements per transaction, so reading the current stock only
+ * ever adds up a few recent movements.  Several processes may run one;
+ * compact_inventory() lets only one of them work at a time.  The first
+ * run checks that the function exists and stops the compactor for good
+ * if it does not, i.e. the database has no ledger.
+ *
+ */
+public class InventoryCompactor {
+
+   static final String COMPACT =
+      "SELECT compact_inventory(?)";
+
+   static final String INSTALLED =
+      "SELECT cast(to_regproc('compact_inventory') IS NOT NULL AS integer)";
+
+   private final Retail esql;
+   private final long intervalMillis;
+   private final int batchSize;
+   private Timer timer = null;
+
+   public InventoryCompactor(Retail esql) {
+      this.esql = esql;
+      this.intervalMillis = Long.getLong("retail.inventory.compactSec", 60L) * 1000L;
+      this.batchSize = Math.max(1, Integer.getInteger("retail.inventory.compactBatch", 10000));
+   }//end InventoryCompactor
+
+   /**
+    * Compacts every interval on a background thread until stop(); does
+    * nothing if the interval is not positive.
+    */
+   public synchronized void start() {
+      if (this.timer != null || this.intervalMillis <= 0)
+         return;
+      this.timer = new Timer("inventory-compactor", true);
+      this.timer.schedule(new TimerTask() {
+         private boolean checked = false;
+
+         public void run() {
+            try{
+               if (!this.checked){
+                  // a database without the ledger will not grow one.
+                  if (!isInstalled()){
+                     System.err.println("No compact_inventory() in the database, inventory compaction is off");
+                     cancel();
+                     return;
+                  }
+                  this.checked = true;
+               }
+               compact();
+            }catch (SQLException e){
+               System.err.println("Inventory compaction failed: " + e.getMessage());
+            }
+         }
+      }, this.intervalMillis, this.intervalMillis);
+   }//end start
+
+   public synchronized void stop() {
+      if (this.timer != null){
+         this.timer.cancel();
+         this.timer = null;
+      }
+   }//end stop
+
+   /**
+    * @return true if the database has compact_inventory()
+    * @throws java.sql.SQLException when the catalog can not be read
+    */
+   public boolean isInstalled() throws SQLException {
+      return this.esql.executeQueryAndReturnTable(INSTALLED).getInt(0, 0) == 1;
+   }//end isInstalled
+
+   /**
+    * Folds every movement committed so far, one batch per transaction.
+    *
+    * @return the number of movements folded
+    * @throws java.sql.SQLException when a batch fails; earlier batches stay
+    *         folded
+    */
+   public long compact() throws SQLException {
+      long total = 0;
+      long folded;
+      do{
+         folded = this.esql.executeQueryAndReturnTable(COMPACT, this.batchSize).getLong(0, 0);
+         total += folded;
+      }while (folded == this.batchSize);
+      return total;
+   }//end compact
+
+}//end InventoryCompactor
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reading and writing for the HTTP server.  Parsed objects
+ * are LinkedHashMaps, arrays are ArrayLists, numbers are Doubles; writing
+ * accepts the same types plus any Number and ResultTable, which becomes
+ * an array of objects keyed by column name.
+ *
+ */
+public final class Json {
+
+   // arrays and objects may nest this deep, so a hostile body can not
+   // overflow the stack.
+   static final int MAX_DEPTH = 64;
+
+   private final String text;
+   private int pos = 0;
+   private int depth = 0;
+
+   private Json(String text) {
+      this.text = text;
+   }
+
+   /**
+    * @param text a JSON document
+    * @return the parsed value
+    * @throws IllegalArgumentException when text is not valid JSON or nests
+    *         deeper than MAX_DEPTH
+    */
+   public static Object parse(String text) {
+      Json json = new Json(text);
+      json.skipSpace();
+      Object value = json.value();
+      json.skipSpace();
+      if (json.pos != text.length())
+         throw json.error("trailing characters");
+      return value;
+   }//end parse
+
+   /**
+    * @return value as JSON text
+    */
+   public static String write(Object value) {
+      StringBuilder out = new StringBuilder();
+      write(out, value);
+      return out.toString();
+   }//end write
+
+   public static void write(StringBuilder out, Object value) {
+      if (value == null){
+         out.append("null");
+      }else if (value instanceof String){
+         quote(out, (String) value);
+      }else if (value instanceof Double || value instanceof Float){
+         double d = ((Number) value).doubleValue();
+         if (Double.isNaN(d) || Double.isInfinite(d))
+            out.append("null");
+         else if (d == Math.rint(d) && Math.abs(d) < 1e15)
+            out.append((long) d);
+         else
+            out.append(d);
+      }else if (value instanceof Number || value instanceof Boolean){
+         out.append(value);
+      }else if (value instanceof Map){
+         out.append('{');
+         boolean first = true;
+         for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()){
+            if (!first)
+               out.append(',');
+            first = false;
+            quote(out, String.valueOf(e.getKey()));
+            out.append(':');
+            write(out, e.getValue());
+         }//end for
+         out.append('}');
+      }else if (value instanceof List){
+         out.append('[');
+         boolean first = true;
+         for (Object v : (List<?>) value){
+            if (!first)
+               out.append(',');
+            first = false;
+            write(out, v);
+         }//end for
+         out.append(']');
+      }else if (value instanceof ResultTable){
+         writeTable(out, (ResultTable) value);
+      }else{
+         quote(out, value.toString());
+      }
+   }//end write
+
+   // one object per row, keyed by column name.
+   private static void writeTable(StringBuilder out, ResultTable table) {
+      out.append('[');
+      for (int r = 0; r < table.size(); ++r){
+         out.append(r > 0 ? ",{" : "{");
+         for (int c = 0; c < table.columnCount(); ++c){
+            if (c > 0)
+               out.append(',');
+            quote(out, table.columnName(c));
+            out.append(':');
+            if (table.isNull(r, c))
+               out.append("null");
+            else if (table.kind(c) == ResultTable.STRING)
+               quote(out, table.getString(r, c));
+            else if (table.kind(c) == ResultTable.DOUBLE)
+               // NaN and Infinity have no JSON form; see write().
+               write(out, Double.valueOf(table.getDouble(r, c)));
+            else
+               out.append(table.getString(r, c));
+         }//end for
+         out.append('}');
+      }//end for
+      out.append(']');
+   }//end writeTable
+
+   private static void quote(StringBuilder out, String s) {
+      out.append('"');
+      for (int i = 0; i < s.length(); ++i){
+         char c = s.charAt(i);
+         switch (c){
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  out.append(String.format("\\u%04x", (int) c));
+               else
+                  out.append(c);
+         }
+      }//end for
+      out.append('"');
+   }//end quote
+
+   private Object value() {
+      if (this.pos >= this.text.length())
+         throw error("unexpected end");
+      char c = this.text.charAt(this.pos);
+      switch (c){
+         case '{':
+         case '[':
+            if (this.depth == MAX_DEPTH)
+               throw error("nested too deeply");
+            ++this.depth;
+            Object nested = c == '{' ? object() : array();
+            --this.depth;
+            return nested;
+         case '"': return string();
+         case 't': return literal("true", Boolean.TRUE);
+         case 'f': return literal("false", Boolean.FALSE);
+         case 'n': return literal("null", null);
+         default:
+            if (c == '-' || (c >= '0' && c <= '9'))
+               return number();
+            throw error("unexpected '" + c + "'");
+      }
+   }//end value
+
+   private Map<String, Object> object() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      ++this.pos;
+      skipSpace();
+      if (peek() == '}'){
+         ++this.pos;
+         return map;
+      }
+      while (true){
+         skipSpace();
+         if (peek() != '"')
+            throw error("expected a key");
+         String key = string();
+         skipSpace();
+         expect(':');
+         skipSpace();
+         map.put(key, value());
+         skipSpace();
+         if (peek() == ','){
+            ++this.pos;
+            continue;
+         }
+         expect('}');
+         return map;
+      }//end while
+   }//end object
+
+   private List<Object> array() {
+      List<Object> list = new ArrayList<Object>();
+      ++this.pos;
+      skipSpace();
+      if (peek() == ']'){
+         ++this.pos;
+         return list;
+      }
+      while (true){
+         skipSpace();
+         list.add(value());
+         skipSpace();
+         if (peek() == ','){
+            ++this.pos;
+            continue;
+         }
+         expect(']');
+         return list;
+      }//end while
+   }//end array
+
+   private String string() {
+      StringBuilder out = new StringBuilder();
+      ++this.pos;
+      while (true){
+         if (this.pos >= this.text.length())
+            throw error("unterminated string");
+         char c = this.text.charAt(this.pos++);
+         if (c == '"')
+            return out.toString();
+         if (c != '\\'){
+            out.append(c);
+            continue;
+         }
+         if (this.pos >= this.text.length())
+            throw error("unterminated string");
+         char e = this.text.charAt(this.pos++);
+         switch (e){
+            case '"': case '\\': case '/': out.append(e); break;
+            case 'b': out.append('\b'); break;
+            case 'f': out.append('\f'); break;
+            case 'n': out.append('\n'); break;
+            case 'r': out.append('\r'); break;
+            case 't': out.append('\t'); break;
+            case 'u':
+               if (this.pos + 4 > this.text.length())
+                  throw error("bad escape");
+               try{
+                  out.append((char) Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+               }catch (NumberFormatException x){
+                  throw error("bad escape");
+               }
+               this.pos += 4;
+               break;
+            default:
+               throw error("bad escape");
+         }
+      }//end while
+   }//end string
+
+   private Double number() {
+      int start = this.pos;
+      while (this.pos < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.pos)) >= 0)
+         ++this.pos;
+      try{
+         return Double.valueOf(this.text.substring(start, this.pos));
+      }catch (NumberFormatException e){
+         throw error("bad number");
+      }
+   }//end number
+
+   private Object literal(String word, Object value) {
+      if (!this.text.startsWith(word, this.pos))
+         throw error("unexpected token");
+      this.pos += word.length();
+      return value;
+   }//end literal
+
+   private char peek() {
+      if (this.pos >= this.text.length())
+         throw error("unexpected end");
+      return this.text.charAt(this.pos);
+   }//end peek
+
+   private void expect(char c) {
+      if (peek() != c)
+         throw error("expected '" + c + "'");
+      ++this.pos;
+   }//end expect
+
+   private void skipSpace() {
+      while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos)))
+         ++this.pos;
+   }//end skipSpace
+
+   private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("Invalid JSON at " + this.pos + ": " + message);
+   }//end error
+
+}//end Json
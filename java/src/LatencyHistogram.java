@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with log-linear buckets: values below 64
+ * microseconds get their own bucket, larger values are grouped 32 buckets
+ * per power of two, so any percentile is accurate to about 3% with a fixed
+ * 16 KB footprint.  Any number of threads may record concurrently.
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKETS = 32;
+   private static final int BUCKETS = 2 * SUB_BUCKETS + 58 * SUB_BUCKETS;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong total = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * @param micros one observed latency in microseconds
+    */
+   public void record(long micros) {
+      if (micros < 0)
+         micros = 0;
+      this.counts.incrementAndGet(bucketOf(micros));
+      this.total.incrementAndGet();
+      this.sum.addAndGet(micros);
+      long m;
+      while (micros > (m = this.max.get()) && !this.max.compareAndSet(m, micros)){
+         // retry
+      }
+   }//end record
+
+   public long count() { return this.total.get(); }
+   public long max() { return this.max.get(); }
+
+   public double mean() {
+      long n = this.total.get();
+      return n == 0 ? 0 : (double) this.sum.get() / n;
+   }//end mean
+
+   /**
+    * @param q a quantile such as 0.99
+    * @return the latency in microseconds at or below which a fraction q of
+    *         the recorded values fall, or 0 when nothing was recorded
+    */
+   public long percentile(double q) {
+      long n = this.total.get();
+      if (n == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(q * n));
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; ++b){
+         seen += this.counts.get(b);
+         if (seen >= rank)
+            return Math.min(upperBound(b), max());
+      }//end for
+      return max();
+   }//end percentile
+
+   static int bucketOf(long v) {
+      if (v < 2 * SUB_BUCKETS)
+         return (int) v;
+      int msb = 63 - Long.numberOfLeadingZeros(v);
+      int shift = msb - 5;
+      int top = (int) (v >>> shift);
+      return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+   }//end bucketOf
+
+   // largest value that falls into bucket b.
+   static long upperBound(int b) {
+      if (b < 2 * SUB_BUCKETS)
+         return b;
+      int shift = (b - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+      long top = (b - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+      return ((top + 1) << shift) - 1;
+   }//end upperBound
+
+}//end LatencyHistogram
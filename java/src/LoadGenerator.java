@@ -0,0 +1,379 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of Retail operations from many simulated customers and
+ * managers at once and reports per-operation latency percentiles and
+ * throughput.
+ *
+ * Requests are issued at a fixed rate (an open model): the schedule does
+ * not slow down when the database does, and each latency is measured from
+ * the moment the request was due, not from when a worker got to it, so
+ * queueing delay shows up in the numbers instead of being hidden.
+ * Results of the warm-up period are discarded.  Settings come from system
+ * properties:
+ *
+ *    retail.load.users       simulated users and worker threads (50)
+ *    retail.load.rate        requests per second over all users (100)
+ *    retail.load.warmupSec   warm-up seconds (10)
+ *    retail.load.durationSec measured seconds (60)
+ *    retail.load.mix         weights, e.g. "stores=30,products=30,order=25,
+ *                            supply=5,popularProducts=5,popularCustomers=5"
+ *    retail.load.seed        seed of the request schedule (166)
+ *
+ * Size the connection pool with retail.pool.maxSize as well.
+ *
+ */
+public class LoadGenerator {
+
+   enum Op {
+      STORES("stores", Session.Role.CUSTOMER),
+      PRODUCTS("products", Session.Role.CUSTOMER),
+      ORDER("order", Session.Role.CUSTOMER),
+      SUPPLY("supply", Session.Role.MANAGER),
+      POPULAR_PRODUCTS("popularProducts", Session.Role.MANAGER),
+      POPULAR_CUSTOMERS("popularCustomers", Session.Role.MANAGER);
+
+      final String label;
+      final Session.Role role;
+
+      Op(String label, Session.Role role) {
+         this.label = label;
+         this.role = role;
+      }
+   }//end Op
+
+   static final String DEFAULT_MIX =
+      "stores=30,products=30,order=25,supply=5,popularProducts=5,popularCustomers=5";
+
+   // one simulated user and what it has looked up so far.
+   static class SimUser {
+      final Session session;
+      // nearby stores for customers, managed stores for managers.
+      volatile int[] stores;
+
+      SimUser(Session session, int[] stores) {
+         this.session = session;
+         this.stores = stores;
+      }
+   }//end SimUser
+
+   // per-operation results.
+   static class Stats {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong rejected = new AtomicLong();
+   }//end Stats
+
+   private final RetailService service;
+   private final Retail esql;
+   private final int users;
+   private final double rate;
+   private final long warmupNanos;
+   private final long durationNanos;
+   private final long seed;
+   private final Op[] ops = Op.values();
+   private final int[] weights = new int[Op.values().length];
+   private final Stats[] stats = new Stats[Op.values().length];
+   private final List<SimUser> customers = new ArrayList<SimUser>();
+   private final List<SimUser> managers = new ArrayList<SimUser>();
+   private int[] warehouses = new int[0];
+   // product names per store, shared by all simulated users.
+   private final ConcurrentHashMap<Integer, String[]> products = new ConcurrentHashMap<Integer, String[]>();
+
+   public LoadGenerator(RetailService service) {
+      this.service = service;
+      this.esql = service.getRetail();
+      this.users = Integer.getInteger("retail.load.users", 50);
+      this.rate = Double.parseDouble(System.getProperty("retail.load.rate", "100"));
+      this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("retail.load.warmupSec", 10L));
+      this.durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("retail.load.durationSec", 60L));
+      this.seed = Long.getLong("retail.load.seed", 166L);
+      for (int i = 0; i < this.stats.length; ++i)
+         this.stats[i] = new Stats();
+      parseMix(System.getProperty("retail.load.mix", DEFAULT_MIX));
+   }//end LoadGenerator
+
+   private void parseMix(String mix) {
+      for (String part : mix.split(",")){
+         String[] kv = part.trim().split("=");
+         boolean known = false;
+         for (Op op : this.ops){
+            if (op.label.equalsIgnoreCase(kv[0].trim())){
+               this.weights[op.ordinal()] = Integer.parseInt(kv[1].trim());
+               known = true;
+            }
+         }//end for
+         if (!known)
+            throw new IllegalArgumentException("Unknown operation in retail.load.mix: " + kv[0]);
+      }//end for
+   }//end parseMix
+
+   /**
+    * Picks the simulated users: customers in proportion to the customer
+    * share of the mix, the rest managers, together with their stores.
+    */
+   void setUp() throws SQLException {
+      int customerWeight = 0;
+      int totalWeight = 0;
+      for (Op op : this.ops){
+         totalWeight += this.weights[op.ordinal()];
+         if (op.role == Session.Role.CUSTOMER)
+            customerWeight += this.weights[op.ordinal()];
+      }//end for
+      if (totalWeight == 0)
+         throw new IllegalArgumentException("retail.load.mix has no weight");
+      int customerCount = customerWeight == 0 ? 0
+         : Math.max(1, (int) Math.round((double) this.users * customerWeight / totalWeight));
+      int managerCount = customerWeight == totalWeight ? 0 : Math.max(1, this.users - customerCount);
+
+      ResultTable rows = this.esql.executeQueryAndReturnTable(
+         "SELECT userID, name, latitude, longitude FROM Users WHERE type = 'customer' ORDER BY random() LIMIT ?",
+         customerCount);
+      for (int i = 0; i < rows.size(); ++i)
+         this.customers.add(new SimUser(new Session(rows.getInt(i, 0), rows.getString(i, 1),
+            rows.getDouble(i, 2), rows.getDouble(i, 3), Session.Role.CUSTOMER), null));
+
+      rows = this.esql.executeQueryAndReturnTable(
+         "SELECT u.userID, u.name, u.latitude, u.longitude FROM Users u "
+         + "WHERE u.userID IN (SELECT managerID FROM Store) ORDER BY random() LIMIT ?",
+         managerCount);
+      for (int i = 0; i < rows.size(); ++i){
+         int managerID = rows.getInt(i, 0);
+         ResultTable managed = this.esql.executeQueryAndReturnTable(
+            "SELECT storeID FROM Store WHERE managerID = ?", managerID);
+         int[] stores = new int[managed.size()];
+         for (int s = 0; s < stores.length; ++s)
+            stores[s] = managed.getInt(s, 0);
+         this.managers.add(new SimUser(new Session(managerID, rows.getString(i, 1),
+            rows.getDouble(i, 2), rows.getDouble(i, 3), Session.Role.MANAGER), stores));
+      }//end for
+
+      rows = this.esql.getReferenceCache().get().getWarehouses();
+      this.warehouses = new int[rows.size()];
+      for (int i = 0; i < rows.size(); ++i)
+         this.warehouses[i] = rows.getInt(i, 0);
+
+      if (customerCount > 0 && this.customers.isEmpty())
+         throw new SQLException("No customers to simulate");
+      if (managerCount > 0 && this.managers.isEmpty())
+         throw new SQLException("No managers to simulate");
+      System.out.println("Simulating " + this.customers.size() + " customers and "
+         + this.managers.size() + " managers");
+   }//end setUp
+
+   /**
+    * Runs the warm-up and the measured period, then prints the report.
+    */
+   public void run() throws Exception {
+      setUp();
+      ExecutorService workers = Executors.newFixedThreadPool(this.users);
+      Random random = new Random(this.seed);
+      int totalWeight = 0;
+      for (int w : this.weights)
+         totalWeight += w;
+
+      long interval = (long) (TimeUnit.SECONDS.toNanos(1) / this.rate);
+      long start = System.nanoTime();
+      long measureFrom = start + this.warmupNanos;
+      long end = measureFrom + this.durationNanos;
+      System.out.println(String.format("Warming up for %d s, then measuring for %d s at %.0f requests/s",
+         TimeUnit.NANOSECONDS.toSeconds(this.warmupNanos),
+         TimeUnit.NANOSECONDS.toSeconds(this.durationNanos), this.rate));
+      boolean measuring = false;
+      try{
+         for (long i = 0; ; ++i){
+            final long intended = start + i * interval;
+            if (intended >= end)
+               break;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0)
+               LockSupport.parkNanos(wait);
+
+            final Op op = pick(random, totalWeight);
+            List<SimUser> pool = op.role == Session.Role.CUSTOMER ? this.customers : this.managers;
+            final SimUser user = pool.get(random.nextInt(pool.size()));
+            final boolean measured = intended >= measureFrom;
+            if (measured && !measuring){
+               // statement statistics cover the measured part only.
+               this.esql.getSqlStats().reset();
+               measuring = true;
+            }
+            workers.execute(new Runnable() {
+               public void run() {
+                  Stats s = LoadGenerator.this.stats[op.ordinal()];
+                  try{
+                     boolean done = execute(op, user);
+                     if (measured){
+                        s.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+                        if (!done)
+                           s.rejected.incrementAndGet();
+                     }
+                  }catch (Exception e){
+                     if (measured)
+                        s.errors.incrementAndGet();
+                  }
+               }
+            });
+         }//end for
+      }finally{
+         workers.shutdown();
+         workers.awaitTermination(1, TimeUnit.MINUTES);
+         workers.shutdownNow();
+      }
+      report(TimeUnit.NANOSECONDS.toMillis(Math.max(System.nanoTime() - measureFrom, 1)));
+   }//end run
+
+   private Op pick(Random random, int totalWeight) {
+      int r = random.nextInt(totalWeight);
+      for (Op op : this.ops){
+         r -= this.weights[op.ordinal()];
+         if (r < 0)
+            return op;
+      }//end for
+      return this.ops[this.ops.length - 1];
+   }//end pick
+
+   /**
+    * Performs one operation for the user.
+    *
+    * @return false if the operation was refused, e.g. an order for more
+    *         units than are in stock
+    */
+   boolean execute(Op op, SimUser user) throws SQLException {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      Session session = user.session;
+      switch (op){
+         case STORES:
+            return findStores(user).length > 0;
+         case PRODUCTS: {
+            int[] stores = user.stores != null ? user.stores : findStores(user);
+            if (stores.length == 0)
+               return false;
+            return loadProducts(session, stores[random.nextInt(stores.length)]).length > 0;
+         }
+         case ORDER: {
+            int[] stores = user.stores != null ? user.stores : findStores(user);
+            if (stores.length == 0)
+               return false;
+            int storeID = stores[random.nextInt(stores.length)];
+            String[] names = productsOf(session, storeID);
+            if (names.length == 0)
+               return false;
+            return this.service.placeOrder(session, storeID,
+               names[random.nextInt(names.length)], 1 + random.nextInt(5)) > 0;
+         }
+         case SUPPLY: {
+            int[] stores = user.stores;
+            if (stores.length == 0 || this.warehouses.length == 0)
+               return false;
+            int storeID = stores[random.nextInt(stores.length)];
+            String[] names = productsOf(session, storeID);
+            if (names.length == 0)
+               return false;
+            return this.service.requestSupply(session, storeID, names[random.nextInt(names.length)],
+               this.warehouses[random.nextInt(this.warehouses.length)], 1 + random.nextInt(20)) > 0;
+         }
+         case POPULAR_PRODUCTS:
+            this.service.popularProducts(session);
+            return true;
+         case POPULAR_CUSTOMERS:
+            this.service.popularCustomers(session);
+            return true;
+         default:
+            throw new IllegalStateException(op.label);
+      }
+   }//end execute
+
+   private int[] findStores(SimUser user) throws SQLException {
+      ResultTable nearby = this.service.nearbyStores(user.session);
+      int[] stores = new int[nearby.size()];
+      for (int i = 0; i < stores.length; ++i)
+         stores[i] = nearby.getInt(i, 0);
+      user.stores = stores;
+      return stores;
+   }//end findStores
+
+   private String[] loadProducts(Session session, int storeID) throws SQLException {
+      ResultTable rows = this.service.storeProducts(session, storeID);
+      String[] names = new String[rows.size()];
+      for (int i = 0; i < names.length; ++i)
+         names[i] = rows.getString(i, 0);
+      this.products.put(storeID, names);
+      return names;
+   }//end loadProducts
+
+   // product names of the store, browsing it first if nobody has yet.
+   private String[] productsOf(Session session, int storeID) throws SQLException {
+      String[] names = this.products.get(storeID);
+      return names != null ? names : loadProducts(session, storeID);
+   }//end productsOf
+
+   private void report(long millis) {
+      System.out.println();
+      System.out.println(String.format("%-18s %9s %7s %8s %9s %9s %9s %9s %9s %9s",
+         "operation", "count", "errors", "refused", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+      long count = 0;
+      long errors = 0;
+      for (Op op : this.ops){
+         Stats s = this.stats[op.ordinal()];
+         LatencyHistogram h = s.latency;
+         if (h.count() == 0 && s.errors.get() == 0)
+            continue;
+         count += h.count();
+         errors += s.errors.get();
+         System.out.println(String.format("%-18s %9d %7d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+            op.label, h.count(), s.errors.get(), s.rejected.get(), h.count() * 1000.0 / millis,
+            h.mean() / 1000.0, h.percentile(0.50) / 1000.0, h.percentile(0.99) / 1000.0,
+            h.percentile(0.999) / 1000.0, h.max() / 1000.0));
+      }//end for
+      System.out.println(String.format("%-18s %9d %7d %8s %9.1f", "total", count, errors, "",
+         count * 1000.0 / millis));
+      System.out.println("Connection pool: " + this.esql.getConnectionPool());
+      System.out.println("Catalog cache: " + this.esql.getCatalogCache());
+      System.out.println("Reference data: " + this.esql.getReferenceCache());
+      System.out.println();
+      System.out.println("Statements with the most database time:");
+      for (String line : this.esql.getSqlStats().top(10))
+         System.out.println(line);
+   }//end report
+
+   /**
+    * Runs a load test against a database.
+    *
+    * @param args dbname port user
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dretail.load.*=...] " +
+            LoadGenerator.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         esql = new Retail (args[0], args[1], args[2], "");
+         new LoadGenerator(new RetailService(esql)).run();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end LoadGenerator
@@ -0,0 +1,408 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk loader for orders in the format of data/orders.csv.  Rows are read
+ * in chunks; each chunk is validated against the current stock and
+ * applied in one transaction with a batched insert, order numbers drawn
+ * as one block from orders_orderNumber_seq and one multi-row insert into
+ * the inventory ledger.  Rows that can not be applied are reported with their line
+ * number instead of failing the whole load.  The orderNumber column of the
+ * input, if present, is ignored.
+ *
+ */
+public class OrderIngestor {
+
+   // orderTime as timestamptz input: date, time and optional zone, e.g.
+   // 2016-09-10 13:01:00 or 2016-09-10T13:01:00.5+02.  Anything else
+   // would fail the whole chunk's insert.
+   private static final Pattern ORDER_TIME = Pattern.compile(
+      "\\d{4}-\\d{2}-\\d{2}[ T]\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?( ?(Z|[+-]\\d{2}(:?\\d{2})?))?");
+
+   /**
+    * Outcome of one ingestion run.
+    */
+   public static class Report {
+      int accepted;
+      int rejected;
+      long elapsedMillis;
+
+      public int getAccepted() { return this.accepted; }
+      public int getRejected() { return this.rejected; }
+      public long getElapsedMillis() { return this.elapsedMillis; }
+
+      public String toString() {
+         double secs = Math.max(this.elapsedMillis, 1) / 1000.0;
+         return String.format("%d orders accepted, %d rejected in %.1f s (%.0f rows/s)",
+            this.accepted, this.rejected, secs, (this.accepted + this.rejected) / secs);
+      }//end toString
+   }//end Report
+
+   // one parsed input row.
+   static class Row {
+      final long line;
+      final int customerID;
+      final int storeID;
+      final String productName;
+      final int units;
+      final String orderTime;
+
+      Row(long line, int customerID, int storeID, String productName, int units, String orderTime) {
+         this.line = line;
+         this.customerID = customerID;
+         this.storeID = storeID;
+         this.productName = productName;
+         this.units = units;
+         this.orderTime = orderTime;
+      }
+
+      String key() {
+         return OrderIngestor.key(this.storeID, this.productName);
+      }
+   }//end Row
+
+   private final Retail esql;
+   private final int batchSize;
+   private final PrintStream rejects;
+
+   /**
+    * @param esql the database the orders are applied to
+    * @param batchSize rows validated and committed per transaction
+    * @param rejects receives one line per rejected row
+    */
+   public OrderIngestor(Retail esql, int batchSize, PrintStream rejects) {
+      this.esql = esql;
+      this.batchSize = batchSize;
+      this.rejects = rejects;
+   }//end OrderIngestor
+
+   /**
+    * Reads orders from a CSV stream with a header line and applies them.
+    *
+    * @param input the CSV data
+    * @return counts of accepted and rejected rows
+    * @throws java.io.IOException when the input can not be read
+    */
+   public Report ingest(Reader input) throws IOException {
+      long start = System.currentTimeMillis();
+      Report report = new Report();
+      BufferedReader reader = new BufferedReader(input);
+      String headerLine = reader.readLine();
+      if (headerLine == null)
+         return report;
+      String[] header = Csv.split(headerLine);
+      int cCustomer = Csv.column(header, "customerID");
+      int cStore = Csv.column(header, "storeID");
+      int cProduct = Csv.column(header, "productName");
+      int cUnits = Csv.column(header, "unitsOrdered");
+      int cTime = Csv.column(header, "orderTime");
+      if (cCustomer < 0 || cStore < 0 || cProduct < 0 || cUnits < 0 || cTime < 0)
+         throw new IOException("Expected columns customerID, storeID, productName, unitsOrdered, orderTime");
+
+      List<Row> chunk = new ArrayList<Row>(this.batchSize);
+      long lineNo = 1;
+      String line;
+      while ((line = reader.readLine()) != null){
+         ++lineNo;
+         if (line.trim().isEmpty())
+            continue;
+         String[] f = Csv.split(line);
+         try{
+            Row row = new Row(lineNo,
+               Integer.parseInt(f[cCustomer].trim()),
+               Integer.parseInt(f[cStore].trim()),
+               f[cProduct].trim(),
+               Integer.parseInt(f[cUnits].trim()),
+               f[cTime].trim());
+            if (row.units <= 0){
+               reject(report, lineNo, "unitsOrdered must be positive");
+               continue;
+            }
+            if (!ORDER_TIME.matcher(row.orderTime).matches()){
+               reject(report, lineNo, "orderTime must look like 2016-09-10 13:01:00");
+               continue;
+            }
+            chunk.add(row);
+         }catch (RuntimeException e){
+            reject(report, lineNo, "malformed row");
+            continue;
+         }
+         if (chunk.size() == this.batchSize){
+            applyChunk(chunk, report);
+            chunk.clear();
+         }
+      }//end while
+      if (!chunk.isEmpty())
+         applyChunk(chunk, report);
+      report.elapsedMillis = System.currentTimeMillis() - start;
+      return report;
+   }//end ingest
+
+   // validates and applies one chunk in a single transaction.
+   private void applyChunk(List<Row> chunk, Report report) {
+      ConnectionPool pool = this.esql.getConnectionPool();
+      Connection conn = null;
+      try{
+         conn = pool.borrow();
+         conn.setAutoCommit(false);
+
+         Map<String, int[]> stock = lockStock(conn, chunk);
+         Set<Integer> customers = existingCustomers(conn, chunk);
+
+         // walk the rows in file order against the running stock.
+         List<Row> accepted = new ArrayList<Row>(chunk.size());
+         List<Row> rejected = new ArrayList<Row>();
+         List<String> reasons = new ArrayList<String>();
+         Map<String, int[]> decrements = new LinkedHashMap<String, int[]>();
+         for (Row row : chunk){
+            int[] units = stock.get(row.key());
+            String reason = null;
+            if (!customers.contains(row.customerID))
+               reason = "unknown customer " + row.customerID;
+            else if (units == null)
+               reason = "no product '" + row.productName + "' at store " + row.storeID;
+            else if (units[0] < row.units)
+               reason = "only " + units[0] + " units of '" + row.productName + "' left at store " + row.storeID;
+            if (reason != null){
+               rejected.add(row);
+               reasons.add(reason);
+               continue;
+            }
+            units[0] -= row.units;
+            int[] total = decrements.get(row.key());
+            if (total == null)
+               decrements.put(row.key(), total = new int[1]);
+            total[0] += row.units;
+            accepted.add(row);
+         }//end for
+
+         if (!accepted.isEmpty()){
+            int[] numbers = allocateOrderNumbers(conn, accepted.size());
+            insertOrders(conn, accepted, numbers);
+            takeStock(conn, accepted, decrements);
+         }
+         conn.commit();
+
+         // supplies are not locked out, so report the change, not the stock.
+         CatalogCache catalogs = this.esql.getCatalogCache();
+         for (Row row : accepted){
+            int[] taken = decrements.remove(row.key());
+            if (taken != null)
+               catalogs.addUnits(row.storeID, row.productName, -taken[0]);
+         }//end for
+
+         report.accepted += accepted.size();
+         for (int i = 0; i < rejected.size(); ++i)
+            reject(report, rejected.get(i).line, reasons.get(i));
+      }catch (SQLException e){
+         for (Row row : chunk)
+            reject(report, row.line, "batch failed: " + e.getMessage());
+      }finally{
+         // release() rolls back whatever was not committed.
+         pool.release(conn);
+      }//end try
+   }//end applyChunk
+
+   // locks the stock of every product referenced by chunk, in key order
+   // as take_stock expects, then reads it.  The read is a statement of its
+   // own so it sees everything committed before the locks were granted.
+   private Map<String, int[]> lockStock(Connection conn, List<Row> chunk) throws SQLException {
+      Map<String, Row> keys = new LinkedHashMap<String, Row>();
+      for (Row row : chunk)
+         keys.put(row.key(), row);
+
+      StringBuilder sql = new StringBuilder("SELECT lock_stock(k.storeID, k.productName) FROM (SELECT * FROM (VALUES ");
+      appendTuples(sql, keys.size(), "cast(? as integer), cast(? as char(30))");
+      sql.append(") v(storeID, productName) ORDER BY storeID, productName OFFSET 0) k");
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      try{
+         bindKeys(stmt, keys.values());
+         stmt.executeQuery().close();
+      }finally{
+         stmt.close();
+      }
+
+      sql = new StringBuilder(
+         "SELECT p.storeID, p.productName, p.numberOfUnits FROM ProductStock p JOIN (VALUES ");
+      appendTuples(sql, keys.size(), "cast(? as integer), cast(? as char(30))");
+      sql.append(") k(storeID, productName) ON p.storeID = k.storeID AND p.productName = k.productName");
+
+      Map<String, int[]> stock = new HashMap<String, int[]>();
+      stmt = conn.prepareStatement(sql.toString());
+      try{
+         bindKeys(stmt, keys.values());
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            stock.put(key(rs.getInt(1), rs.getString(2).trim()), new int[] { rs.getInt(3) });
+         rs.close();
+      }finally{
+         stmt.close();
+      }
+      return stock;
+   }//end lockStock
+
+   private static void bindKeys(PreparedStatement stmt, Iterable<Row> keys) throws SQLException {
+      int i = 1;
+      for (Row row : keys){
+         stmt.setInt(i++, row.storeID);
+         stmt.setString(i++, row.productName);
+      }//end for
+   }//end bindKeys
+
+   private Set<Integer> existingCustomers(Connection conn, List<Row> chunk) throws SQLException {
+      Set<Integer> ids = new HashSet<Integer>();
+      for (Row row : chunk)
+         ids.add(row.customerID);
+
+      StringBuilder sql = new StringBuilder("SELECT userID FROM Users WHERE userID IN (");
+      appendTuples(sql, ids.size(), "?");
+      sql.append(")");
+
+      Set<Integer> existing = new HashSet<Integer>();
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      try{
+         int i = 1;
+         for (Integer id : ids)
+            stmt.setInt(i++, id);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            existing.add(rs.getInt(1));
+         rs.close();
+      }finally{
+         stmt.close();
+      }
+      return existing;
+   }//end existingCustomers
+
+   // draws count order numbers from the sequence in a single round trip.
+   private int[] allocateOrderNumbers(Connection conn, int count) throws SQLException {
+      int[] numbers = new int[count];
+      PreparedStatement stmt = conn.prepareStatement(
+         "SELECT nextval('orders_orderNumber_seq') FROM generate_series(1, ?)");
+      try{
+         stmt.setInt(1, count);
+         ResultSet rs = stmt.executeQuery();
+         for (int i = 0; i < count && rs.next(); ++i)
+            numbers[i] = rs.getInt(1);
+         rs.close();
+      }finally{
+         stmt.close();
+      }
+      return numbers;
+   }//end allocateOrderNumbers
+
+   private void insertOrders(Connection conn, List<Row> rows, int[] numbers) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement(
+         "INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) VALUES (?, ?, ?, ?, ?, cast(? as timestamptz))");
+      try{
+         for (int i = 0; i < rows.size(); ++i){
+            Row row = rows.get(i);
+            stmt.setInt(1, numbers[i]);
+            stmt.setInt(2, row.customerID);
+            stmt.setInt(3, row.storeID);
+            stmt.setString(4, row.productName);
+            stmt.setInt(5, row.units);
+            stmt.setString(6, row.orderTime);
+            stmt.addBatch();
+         }//end for
+         stmt.executeBatch();
+      }finally{
+         stmt.close();
+      }
+   }//end insertOrders
+
+   // one ledger entry per product for the whole chunk.
+   private void takeStock(Connection conn, List<Row> rows, Map<String, int[]> decrements) throws SQLException {
+      Map<String, Row> byKey = new HashMap<String, Row>();
+      for (Row row : rows)
+         byKey.put(row.key(), row);
+
+      StringBuilder sql = new StringBuilder(
+         "INSERT INTO InventoryMovement (storeID, productName, delta, reason) VALUES ");
+      appendTuples(sql, decrements.size(), "?, ?, ?, 'order'");
+
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      try{
+         int i = 1;
+         for (Map.Entry<String, int[]> e : decrements.entrySet()){
+            Row row = byKey.get(e.getKey());
+            stmt.setInt(i++, row.storeID);
+            stmt.setString(i++, row.productName);
+            stmt.setInt(i++, -e.getValue()[0]);
+         }//end for
+         stmt.executeUpdate();
+      }finally{
+         stmt.close();
+      }
+   }//end takeStock
+
+   private void reject(Report report, long line, String reason) {
+      ++report.rejected;
+      this.rejects.println("line " + line + ": " + reason);
+   }//end reject
+
+   static void appendTuples(StringBuilder sql, int count, String tuple) {
+      boolean values = tuple.indexOf(',') >= 0;
+      for (int i = 0; i < count; ++i){
+         if (i > 0)
+            sql.append(", ");
+         sql.append(values ? "(" + tuple + ")" : tuple);
+      }//end for
+   }//end appendTuples
+
+   static String key(int storeID, String productName) {
+      return storeID + "/" + productName;
+   }//end key
+
+   /**
+    * Loads an orders CSV file.
+    *
+    * @param args dbname port user file [batchSize]
+    */
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            OrderIngestor.class.getName () +
+            " <dbname> <port> <user> <orders.csv> [batchSize]");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         esql = new Retail (args[0], args[1], args[2], "");
+         int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+         OrderIngestor ingestor = new OrderIngestor(esql, batchSize, System.err);
+         Reader input = new FileReader(args[3]);
+         try{
+            System.out.println(ingestor.ingest(input));
+         }finally{
+            input.close();
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end OrderIngestor
@@ -0,0 +1,304 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plan regression check for the statements of RetailService.  Every SQL
+ * constant of RetailService (found by reflection, so new ones can not be
+ * forgotten), every variant of its column-dependent updates, the cache
+ * loads and the replenishment scan are run through EXPLAIN (FORMAT JSON)
+ * with sample arguments taken from the database.  A statement fails when
+ * its plan
+ *
+ *    - joins with a nested loop that has no condition between its sides
+ *      (a cross join) and more than one outer row,
+ *    - reads a table of at least retail.plan.largeRows rows (10000) with
+ *      a sequential scan, or
+ *    - costs more than retail.plan.maxCost (1000) in planner units.
+ *
+ * Statements that read whole tables on purpose (admin listings and the
+ * start-up loads) are only reported.  Run it against a scaled data set,
+ * e.g. DataGenerator at scale 1 loaded with DataLoader; statistics are
+ * refreshed with ANALYZE first unless retail.plan.analyze=false.  Exits
+ * with status 1 if any statement fails.
+ *
+ */
+public class PlanCheck {
+
+   // statements expected to read a whole table.
+   static final Set<String> FULL_READS = new HashSet<String>();
+   static {
+      FULL_READS.add("USER_NAMES");
+      FULL_READS.add("ALL_USERS");
+      FULL_READS.add("ALL_PRODUCTS");
+      FULL_READS.add("ReferenceCache.VERSION");
+      FULL_READS.add("ReferenceCache.STORES");
+      FULL_READS.add("ReferenceCache.WAREHOUSES");
+      FULL_READS.add("ReplenishmentEngine.LOW_STOCK");
+   }
+
+   // plan fields holding conditions that may refer to other relations.
+   static final String[] CONDITIONS = {
+      "Index Cond", "Recheck Cond", "Filter", "Join Filter", "Hash Cond", "Merge Cond"
+   };
+
+   private final Retail esql;
+   private final double maxCost;
+   private final double largeRows;
+   private final Map<String, Double> tableRows = new HashMap<String, Double>();
+
+   public PlanCheck(Retail esql) {
+      this.esql = esql;
+      this.maxCost = Double.parseDouble(System.getProperty("retail.plan.maxCost", "1000"));
+      this.largeRows = Double.parseDouble(System.getProperty("retail.plan.largeRows", "10000"));
+   }//end PlanCheck
+
+   /**
+    * Explains every statement and prints one line per statement.
+    *
+    * @return the number of failing statements
+    * @throws java.lang.Exception when the database has no sample data or
+    *         a statement can not be explained
+    */
+   public int run() throws Exception {
+      if (!"false".equals(System.getProperty("retail.plan.analyze")))
+         this.esql.executeUpdate("ANALYZE");
+      ResultTable tables = this.esql.executeQueryAndReturnTable(
+         "SELECT relname, reltuples FROM pg_class WHERE relkind = 'r'");
+      for (int r = 0; r < tables.size(); ++r)
+         this.tableRows.put(tables.getString(r, 0).trim(), tables.getDouble(r, 1));
+
+      Map<String, String> statements = statements();
+      Map<String, Object[]> samples = samples();
+      int failed = 0;
+      for (Map.Entry<String, String> e : statements.entrySet()){
+         String name = e.getKey();
+         Object[] args = samples.get(name);
+         List<String> problems = new ArrayList<String>();
+         double cost = 0;
+         if (args == null){
+            problems.add("no sample arguments in PlanCheck.samples()");
+         }else{
+            Map<?, ?> plan = explain(e.getValue(), args);
+            cost = ((Number) plan.get("Total Cost")).doubleValue();
+            check(plan, problems);
+            if (cost > this.maxCost)
+               problems.add(String.format("cost %.0f above budget %.0f", cost, this.maxCost));
+         }
+         boolean expected = FULL_READS.contains(name);
+         boolean fails = !problems.isEmpty() && !expected;
+         if (fails)
+            ++failed;
+         System.out.println(String.format("%-4s %-32s %10.1f  %s",
+            problems.isEmpty() ? "ok" : fails ? "FAIL" : "full",
+            name, cost, join(problems)));
+      }//end for
+      System.out.println(String.format("%d statements, %d failed", statements.size(), failed));
+      return failed;
+   }//end run
+
+   // the SQL constants of RetailService plus its column-dependent updates.
+   static Map<String, String> statements() throws IllegalAccessException {
+      Map<String, String> statements = new LinkedHashMap<String, String>();
+      for (Field f : RetailService.class.getDeclaredFields()){
+         int m = f.getModifiers();
+         // the public String constants are SQLStates, not statements.
+         if (f.getType() == String.class && Modifier.isStatic(m) && Modifier.isFinal(m) && !Modifier.isPublic(m)){
+            f.setAccessible(true);
+            statements.put(f.getName(), (String) f.get(null));
+         }
+      }//end for
+      statements.put("ReferenceCache.VERSION", ReferenceCache.VERSION);
+      statements.put("ReferenceCache.VERSIONED", ReferenceCache.VERSIONED);
+      statements.put("ReferenceCache.STORES", ReferenceCache.STORES);
+      statements.put("ReferenceCache.WAREHOUSES", ReferenceCache.WAREHOUSES);
+      statements.put("CatalogCache.STORE_PRODUCTS", CatalogCache.STORE_PRODUCTS);
+      statements.put("ReplenishmentEngine.LOW_STOCK", ReplenishmentEngine.LOW_STOCK);
+      statements.put("InventoryCompactor.COMPACT", InventoryCompactor.COMPACT);
+      statements.put("InventoryCompactor.INSTALLED", InventoryCompactor.INSTALLED);
+      statements.put("AuditWriter.insertSql(1)", AuditWriter.insertSql(1));
+      // the stock is set through SET_STOCK and SET_MANAGED_STOCK.
+      RetailService.ProductField price = RetailService.ProductField.PRICE;
+      statements.put("updateProductSql(" + price + ")", RetailService.updateProductSql(price));
+      statements.put("updateManagedProductSql(" + price + ")", RetailService.updateManagedProductSql(price));
+      for (RetailService.UserField field : RetailService.UserField.values())
+         statements.put("updateUserSql(" + field + ")", RetailService.updateUserSql(field));
+      return statements;
+   }//end statements
+
+   // arguments for each statement, in the order RetailService binds them.
+   Map<String, Object[]> samples() throws Exception {
+      ResultTable store = this.esql.executeQueryAndReturnTable(
+         "SELECT storeID, managerID, latitude, longitude FROM Store ORDER BY storeID LIMIT 1");
+      ResultTable customer = this.esql.executeQueryAndReturnTable(
+         "SELECT userID, name, password FROM Users WHERE type = 'customer' ORDER BY userID LIMIT 1");
+      ResultTable warehouse = this.esql.executeQueryAndReturnTable(
+         "SELECT WarehouseID FROM Warehouse ORDER BY WarehouseID LIMIT 1");
+      if (store.size() == 0 || customer.size() == 0 || warehouse.size() == 0)
+         throw new Exception("Load a data set first: no stores, customers or warehouses");
+      int storeID = store.getInt(0, 0);
+      int managerID = store.getInt(0, 1);
+      double lat = store.getDouble(0, 2);
+      double lon = store.getDouble(0, 3);
+      int customerID = customer.getInt(0, 0);
+      String name = customer.getString(0, 1).trim();
+      String password = customer.getString(0, 2).trim();
+      int warehouseID = warehouse.getInt(0, 0);
+      ResultTable product = this.esql.executeQueryAndReturnTable(
+         "SELECT productName FROM Product WHERE storeID = ? LIMIT 1", storeID);
+      String productName = product.size() == 0 ? "Pepsi" : product.getString(0, 0).trim();
+      double r = RetailService.NEARBY_RADIUS;
+      String now = "2016-09-10 13:01:00";
+
+      Map<String, Object[]> samples = new HashMap<String, Object[]>();
+      samples.put("LOGIN", args(name, password));
+      samples.put("INSERT_USER", args("plancheck", "pw", lat, lon, "customer"));
+      samples.put("DELETE_USER", args(customerID));
+      samples.put("USER_EXISTS", args(customerID));
+      samples.put("USER_NAMES", args());
+      samples.put("ALL_USERS", args());
+      samples.put("NEARBY_STORES", args(lat, lon, lat - r, lat + r, lon - r, lon + r, r));
+      samples.put("ReferenceCache.VERSION", args());
+      samples.put("ReferenceCache.VERSIONED", args());
+      samples.put("ReferenceCache.STORES", args());
+      samples.put("ReferenceCache.WAREHOUSES", args());
+      samples.put("CatalogCache.STORE_PRODUCTS", args(storeID));
+      samples.put("ReplenishmentEngine.LOW_STOCK", args(50, 10, 0, "", 500));
+      samples.put("InventoryCompactor.COMPACT", args(10000));
+      samples.put("InventoryCompactor.INSTALLED", args());
+      samples.put("AuditWriter.insertSql(1)", args(managerID, storeID, productName, now));
+      samples.put("ALL_PRODUCTS", args());
+      samples.put("MANAGED_PRODUCTS", args(managerID));
+      samples.put("INSERT_PRODUCT", args(storeID, "plancheck", 1, 1.0));
+      samples.put("DELETE_PRODUCT", args(storeID, productName));
+      samples.put("RENAME_PRODUCT", args("plancheck", storeID, productName));
+      samples.put("PLACE_ORDER", args(storeID, lat, lon, r * r, productName, 1, customerID));
+      samples.put("RECENT_ORDERS", args(customerID, 5));
+      samples.put("OLDER_ORDERS", args(customerID, now, 1, 5));
+      samples.put("MANAGED_STORES", args(managerID));
+      samples.put("RECENT_UPDATES", args(managerID));
+      samples.put("POPULAR_PRODUCTS", args(managerID));
+      samples.put("POPULAR_CUSTOMERS", args(managerID));
+      samples.put("REQUEST_SUPPLY", args(storeID, productName, managerID, 1, managerID, warehouseID, 1));
+      samples.put("SET_STOCK", args(storeID, productName, 1));
+      samples.put("SET_MANAGED_STOCK", args(storeID, managerID, storeID, productName, 1));
+      samples.put("updateProductSql(PRICE)", args(1.0, storeID, productName));
+      samples.put("updateManagedProductSql(PRICE)", args(1.0, storeID, productName, managerID));
+      samples.put("updateUserSql(PASSWORD)", args("pw", customerID));
+      samples.put("updateUserSql(LATITUDE)", args(lat, customerID));
+      samples.put("updateUserSql(LONGITUDE)", args(lon, customerID));
+      return samples;
+   }//end samples
+
+   // the top plan node of sql; EXPLAIN without ANALYZE runs nothing.
+   private Map<?, ?> explain(String sql, Object[] args) throws Exception {
+      ResultTable result = this.esql.executeQueryAndReturnTable("EXPLAIN (FORMAT JSON) " + sql, args);
+      List<?> json = (List<?>) Json.parse(result.getString(0, 0));
+      return (Map<?, ?>) ((Map<?, ?>) json.get(0)).get("Plan");
+   }//end explain
+
+   void check(Map<?, ?> node, List<String> problems) {
+      String type = (String) node.get("Node Type");
+      List<?> children = (List<?>) node.get("Plans");
+      if ("Seq Scan".equals(type)){
+         String table = (String) node.get("Relation Name");
+         Double rows = this.tableRows.get(table);
+         if (rows != null && rows >= this.largeRows)
+            problems.add(String.format("seq scan on %s (%.0f rows)", table, rows));
+      }else if ("Nested Loop".equals(type) && children != null && children.size() == 2){
+         Map<?, ?> outer = (Map<?, ?>) children.get(0);
+         Map<?, ?> inner = (Map<?, ?>) children.get(1);
+         double outerRows = ((Number) outer.get("Plan Rows")).doubleValue();
+         if (outerRows > 1 && node.get("Join Filter") == null && !refersTo(inner, aliases(outer, new HashSet<String>())))
+            problems.add(String.format("nested-loop cross join of %s and %s",
+               aliases(outer, new HashSet<String>()), aliases(inner, new HashSet<String>())));
+      }
+      if (children != null){
+         for (Object child : children)
+            check((Map<?, ?>) child, problems);
+      }
+   }//end check
+
+   private static Set<String> aliases(Map<?, ?> node, Set<String> into) {
+      Object alias = node.get("Alias");
+      if (alias != null)
+         into.add((String) alias);
+      List<?> children = (List<?>) node.get("Plans");
+      if (children != null){
+         for (Object child : children)
+            aliases((Map<?, ?>) child, into);
+      }
+      return into;
+   }//end aliases
+
+   // true if a condition anywhere under node mentions one of aliases.
+   private static boolean refersTo(Map<?, ?> node, Set<String> aliases) {
+      for (String key : CONDITIONS){
+         Object cond = node.get(key);
+         if (cond == null)
+            continue;
+         for (String alias : aliases){
+            if (cond.toString().contains(alias + "."))
+               return true;
+         }
+      }//end for
+      List<?> children = (List<?>) node.get("Plans");
+      if (children != null){
+         for (Object child : children){
+            if (refersTo((Map<?, ?>) child, aliases))
+               return true;
+         }
+      }
+      return false;
+   }//end refersTo
+
+   private static Object[] args(Object... args) {
+      return args;
+   }//end args
+
+   private static String join(List<String> problems) {
+      StringBuilder out = new StringBuilder();
+      for (String p : problems)
+         out.append(out.length() > 0 ? "; " : "").append(p);
+      return out.toString();
+   }//end join
+
+   /**
+    * Checks the plans of a loaded database.
+    *
+    * @param args dbname port user
+    */
+   public static void main(String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PlanCheck.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      Retail esql = null;
+      int failed = 1;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         esql = new Retail (args[0], args[1], args[2], "");
+         failed = new PlanCheck(esql).run();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+      if (failed > 0)
+         System.exit(1);
+   }//end main
+
+}//end PlanCheck
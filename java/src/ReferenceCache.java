@@ -0,0 +1,130 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current ReferenceData, so store and warehouse lookups need no
+ * database round trip.  The snapshot is loaded at start-up and replaced
+ * as a whole when the tables change; readers never see a half-built one.
+ *
+ * Changes are detected through the one-row ReferenceVersion table that
+ * triggers on Store and Warehouse bump (sql/src/create_reference_version.sql).
+ * At most every retail.reference.checkMs (1000) milliseconds one caller
+ * reads it, and reloads both tables if it moved; the others keep using the
+ * current snapshot meanwhile.  Whether the table exists is checked once,
+ * with to_regclass; without it the snapshot is reloaded once it is older
+ * than retail.reference.ttlSec (60) seconds instead.
+ *
+ */
+public class ReferenceCache {
+
+   static final String VERSION =
+      "SELECT version FROM ReferenceVersion";
+   static final String VERSIONED =
+      "SELECT cast(to_regclass('referenceversion') IS NOT NULL AS integer)";
+   static final String STORES =
+      "SELECT storeID, name, latitude, longitude, managerID FROM Store ORDER BY storeID";
+   static final String WAREHOUSES =
+      "SELECT WarehouseID, area, latitude, longitude FROM Warehouse ORDER BY WarehouseID";
+
+   // version of a snapshot read without a ReferenceVersion table.
+   static final long UNVERSIONED = Long.MIN_VALUE;
+
+   private final Retail esql;
+   private final long checkMillis;
+   private final long ttlMillis;
+   private final AtomicReference<ReferenceData> current = new AtomicReference<ReferenceData>();
+   private final AtomicLong nextCheck = new AtomicLong();
+   // whether ReferenceVersion exists, null until checked.
+   private volatile Boolean versioned = null;
+
+   private final AtomicLong checks = new AtomicLong();
+   private final AtomicLong reloads = new AtomicLong();
+
+   public ReferenceCache(Retail esql) {
+      this.esql = esql;
+      this.checkMillis = Long.getLong("retail.reference.checkMs", 1000L);
+      this.ttlMillis = Long.getLong("retail.reference.ttlSec", 60L) * 1000L;
+   }//end ReferenceCache
+
+   /**
+    * @return the current snapshot, loading it on first use
+    * @throws java.sql.SQLException when the tables can not be read
+    */
+   public ReferenceData get() throws SQLException {
+      ReferenceData data = this.current.get();
+      if (data == null)
+         return load();
+      long now = System.currentTimeMillis();
+      long due = this.nextCheck.get();
+      if (now < due || !this.nextCheck.compareAndSet(due, now + this.checkMillis))
+         return data;
+
+      this.checks.incrementAndGet();
+      long version = version();
+      if (version == data.getVersion()
+          && (version != UNVERSIONED || now - data.loadedAt <= this.ttlMillis))
+         return data;
+      return refresh();
+   }//end get
+
+   // the first load, or the first after invalidate().
+   private synchronized ReferenceData load() throws SQLException {
+      ReferenceData data = this.current.get();
+      return data != null ? data : refresh();
+   }//end load
+
+   /**
+    * Reads both tables again and swaps in the new snapshot.  Concurrent
+    * callers share one reload.
+    *
+    * @return the new snapshot
+    * @throws java.sql.SQLException when the tables can not be read
+    */
+   public synchronized ReferenceData refresh() throws SQLException {
+      ReferenceData data = this.current.get();
+      // the version is read first, so a change racing with the load shows
+      // up as a newer version at the next check.
+      long version = version();
+      if (data != null && version != UNVERSIONED && version == data.getVersion())
+         return data;
+      long now = System.currentTimeMillis();
+      data = new ReferenceData(version,
+         this.esql.executeQueryAndReturnTable(STORES),
+         this.esql.executeQueryAndReturnTable(WAREHOUSES), now);
+      this.current.set(data);
+      this.nextCheck.set(now + this.checkMillis);
+      this.reloads.incrementAndGet();
+      return data;
+   }//end refresh
+
+   /**
+    * Drops the snapshot, e.g. after this process wrote to Store or
+    * Warehouse, so the next get() reads the tables again.
+    */
+   public void invalidate() {
+      this.current.set(null);
+   }//end invalidate
+
+   private long version() throws SQLException {
+      if (this.versioned == null)
+         this.versioned = this.esql.executeQueryAndReturnTable(VERSIONED).getInt(0, 0) == 1;
+      if (!this.versioned)
+         return UNVERSIONED;
+      ResultTable rows = this.esql.executeQueryAndReturnTable(VERSION);
+      return rows.size() == 0 ? UNVERSIONED : rows.getLong(0, 0);
+   }//end version
+
+   public long getChecks() { return this.checks.get(); }
+   public long getReloads() { return this.reloads.get(); }
+
+   public String toString() {
+      ReferenceData data = this.current.get();
+      return String.format("version=%s stores=%d warehouses=%d checks=%d reloads=%d",
+         data == null ? "-" : data.getVersion() == UNVERSIONED ? "none" : String.valueOf(data.getVersion()),
+         data == null ? 0 : data.getStores().size(),
+         data == null ? 0 : data.getWarehouses().size(),
+         this.checks.get(), this.reloads.get());
+   }//end toString
+
+}//end ReferenceCache
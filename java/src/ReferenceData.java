@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The stores and warehouses as read at one moment, with a spatial index
+ * and an id lookup for each.  Instances are never changed; ReferenceCache
+ * swaps in a new one when the tables change.
+ *
+ */
+public final class ReferenceData {
+
+   // columns of the stores table.
+   static final int STORE_ID = 0;
+   static final int STORE_NAME = 1;
+   static final int STORE_LATITUDE = 2;
+   static final int STORE_LONGITUDE = 3;
+   static final int STORE_MANAGER = 4;
+
+   // columns of the warehouses table.
+   static final int WAREHOUSE_ID = 0;
+   static final int WAREHOUSE_AREA = 1;
+   static final int WAREHOUSE_LATITUDE = 2;
+   static final int WAREHOUSE_LONGITUDE = 3;
+
+   private final long version;
+   final long loadedAt;
+
+   private final ResultTable stores;
+   private final ResultTable storeIDs;
+   private final GeoIndex storeIndex;
+   private final HashMap<Integer, Integer> storeRow;
+
+   private final ResultTable warehouses;
+   private final GeoIndex warehouseIndex;
+   private final HashMap<Integer, Integer> warehouseRow;
+
+   /**
+    * @param version the ReferenceVersion the tables were read at
+    * @param stores storeID, name, latitude, longitude and managerID of
+    *        every store
+    * @param warehouses WarehouseID, area, latitude and longitude of every
+    *        warehouse
+    * @param loadedAt when the tables were read
+    */
+   ReferenceData(long version, ResultTable stores, ResultTable warehouses, long loadedAt) {
+      this.version = version;
+      this.loadedAt = loadedAt;
+
+      this.stores = stores;
+      int n = stores.size();
+      int[] all = new int[n];
+      for (int r = 0; r < all.length; ++r)
+         all[r] = r;
+      this.storeIDs = stores.pick(all, STORE_ID);
+      this.storeIndex = new GeoIndex(Arrays.copyOf(stores.intColumn(STORE_ID), n),
+         Arrays.copyOf(stores.stringColumn(STORE_NAME), n),
+         Arrays.copyOf(stores.doubleColumn(STORE_LATITUDE), n),
+         Arrays.copyOf(stores.doubleColumn(STORE_LONGITUDE), n));
+      this.storeRow = rowsById(stores, STORE_ID);
+
+      this.warehouses = warehouses;
+      int m = warehouses.size();
+      this.warehouseIndex = new GeoIndex(Arrays.copyOf(warehouses.intColumn(WAREHOUSE_ID), m), null,
+         Arrays.copyOf(warehouses.doubleColumn(WAREHOUSE_LATITUDE), m),
+         Arrays.copyOf(warehouses.doubleColumn(WAREHOUSE_LONGITUDE), m));
+      this.warehouseRow = rowsById(warehouses, WAREHOUSE_ID);
+   }//end ReferenceData
+
+   private static HashMap<Integer, Integer> rowsById(ResultTable table, int col) {
+      HashMap<Integer, Integer> rows = new HashMap<Integer, Integer>(table.size() * 2);
+      for (int r = 0; r < table.size(); ++r)
+         rows.put(table.getInt(r, col), r);
+      return rows;
+   }//end rowsById
+
+   public long getVersion() { return this.version; }
+
+   /**
+    * @return storeID, name, latitude, longitude and managerID of every
+    *         store by storeID; do not change it
+    */
+   public ResultTable getStores() { return this.stores; }
+
+   /**
+    * @return the storeID of every store; do not change it
+    */
+   public ResultTable getStoreIDs() { return this.storeIDs; }
+
+   /**
+    * @return the spatial index over the stores; its positions are rows of
+    *         getStores()
+    */
+   public GeoIndex getStoreIndex() { return this.storeIndex; }
+
+   public boolean hasStore(int storeID) {
+      return this.storeRow.containsKey(storeID);
+   }//end hasStore
+
+   /**
+    * @return the store's row of getStores(), or -1 if there is no such store
+    */
+   public int storeRow(int storeID) {
+      Integer r = this.storeRow.get(storeID);
+      return r == null ? -1 : r;
+   }//end storeRow
+
+   /**
+    * @return (storeID, name) of the stores strictly closer than radius to
+    *         the given location, nearest first
+    */
+   public ResultTable storesWithin(double lat, double lon, double radius) {
+      return this.stores.pick(this.storeIndex.withinRadius(lat, lon, radius), STORE_ID, STORE_NAME);
+   }//end storesWithin
+
+   /**
+    * @return WarehouseID, area, latitude and longitude of every warehouse
+    *         by WarehouseID; do not change it
+    */
+   public ResultTable getWarehouses() { return this.warehouses; }
+
+   /**
+    * @return the spatial index over the warehouses; its positions are rows
+    *         of getWarehouses()
+    */
+   public GeoIndex getWarehouseIndex() { return this.warehouseIndex; }
+
+   public boolean hasWarehouse(int warehouseID) {
+      return this.warehouseRow.containsKey(warehouseID);
+   }//end hasWarehouse
+
+}//end ReferenceData
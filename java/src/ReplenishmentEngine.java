@@ -0,0 +1,326 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tops up low stock without a manager at the screen.  Each run walks
+ * the products in key order, batchSize rows at a time, with one query that
+ * returns the products below their reorder point (ReorderPoint, or the
+ * retail.replenish.threshold and retail.replenish.target defaults).  For
+ * each batch it picks the warehouse nearest to every store from the
+ * in-memory ReferenceData and, in one transaction, inserts all the supply
+ * requests with one statement and the units into the inventory ledger
+ * with another.  The request is recorded under the store's manager.
+ *
+ * Every batch holds a transaction-level advisory lock and reads the stock
+ * after getting it, so engines in several processes never top up the
+ * same product twice; a run that finds the lock taken stops and leaves
+ * the rest to the engine holding it.  Adding stock does not block orders.
+ *
+ * Runs repeat every retail.replenish.intervalSec (300) seconds with
+ * batches of retail.replenish.batchSize (500) rows.
+ *
+ */
+public class ReplenishmentEngine {
+
+   static final String BATCH_LOCK =
+      "SELECT pg_try_advisory_xact_lock(hashtext('ReplenishmentEngine'))";
+   static final String LOW_STOCK =
+      "SELECT p.storeID, p.productName, p.numberOfUnits, coalesce(r.targetUnits, ?) - p.numberOfUnits AS units "
+      + "FROM ProductStock p LEFT JOIN ReorderPoint r ON r.productName = p.productName "
+      + "WHERE p.numberOfUnits < coalesce(r.threshold, ?) "
+      + "AND (p.storeID, p.productName) > (?, cast(? as char(30))) "
+      + "ORDER BY p.storeID, p.productName LIMIT ?";
+
+   /**
+    * Outcome of one run.
+    */
+   public static class Report {
+      int requests;
+      long units;
+      int skipped;
+      long elapsedMillis;
+
+      public int getRequests() { return this.requests; }
+      public long getUnits() { return this.units; }
+      public int getSkipped() { return this.skipped; }
+      public long getElapsedMillis() { return this.elapsedMillis; }
+
+      public String toString() {
+         return String.format("%d supply requests for %d units, %d skipped in %.1f s",
+            this.requests, this.units, this.skipped, this.elapsedMillis / 1000.0);
+      }//end toString
+   }//end Report
+
+   // one low product of a batch.
+   static class Low {
+      final int storeID;
+      final String productName;
+      final int units;
+      int managerID;
+      int warehouseID;
+
+      Low(int storeID, String productName, int units) {
+         this.storeID = storeID;
+         this.productName = productName;
+         this.units = units;
+      }
+   }//end Low
+
+   private final Retail esql;
+   private final int batchSize;
+   private final long intervalMillis;
+   private final int defaultThreshold;
+   private final int defaultTarget;
+   private Timer timer = null;
+
+   public ReplenishmentEngine(Retail esql) {
+      this.esql = esql;
+      this.batchSize = Math.max(1, Integer.getInteger("retail.replenish.batchSize", 500));
+      this.intervalMillis = Math.max(1L, Long.getLong("retail.replenish.intervalSec", 300L)) * 1000L;
+      this.defaultThreshold = Math.max(0, Integer.getInteger("retail.replenish.threshold", 10));
+      // topping up to below the threshold would leave the product low.
+      this.defaultTarget = Math.max(this.defaultThreshold, Integer.getInteger("retail.replenish.target", 50));
+   }//end ReplenishmentEngine
+
+   /**
+    * Runs every interval on a background thread until stop().
+    */
+   public synchronized void start() {
+      if (this.timer != null)
+         return;
+      this.timer = new Timer("replenishment", true);
+      this.timer.schedule(new TimerTask() {
+         public void run() {
+            try{
+               Report report = runOnce();
+               if (report.requests > 0 || report.skipped > 0)
+                  System.out.println("Replenishment: " + report);
+            }catch (SQLException e){
+               System.err.println("Replenishment failed: " + e.getMessage());
+            }
+         }
+      }, this.intervalMillis, this.intervalMillis);
+   }//end start
+
+   /**
+    * Stops the schedule; a run in progress finishes its batch first.
+    */
+   public synchronized void stop() {
+      if (this.timer != null){
+         this.timer.cancel();
+         this.timer = null;
+      }
+   }//end stop
+
+   /**
+    * Replenishes every product that is low now.
+    *
+    * @return what was requested
+    * @throws java.sql.SQLException when a batch fails; earlier batches stay
+    *         committed
+    */
+   public Report runOnce() throws SQLException {
+      long start = System.currentTimeMillis();
+      Report report = new Report();
+      int lastStore = Integer.MIN_VALUE;
+      String lastName = "";
+      boolean more = true;
+      while (more){
+         List<Low> batch = new ArrayList<Low>(this.batchSize);
+         ConnectionPool pool = this.esql.getConnectionPool();
+         Connection conn = null;
+         try{
+            conn = pool.borrow();
+            conn.setAutoCommit(false);
+            if (!lockBatch(conn))
+               break;
+            readLow(conn, lastStore, lastName, batch);
+            more = batch.size() == this.batchSize;
+            if (batch.isEmpty())
+               break;
+            Low last = batch.get(batch.size() - 1);
+            lastStore = last.storeID;
+            lastName = last.productName;
+
+            List<Low> placed = assignWarehouses(batch);
+            report.skipped += batch.size() - placed.size();
+            if (!placed.isEmpty()){
+               insertRequests(conn, placed);
+               addStock(conn, placed);
+            }
+            conn.commit();
+
+            CatalogCache catalogs = this.esql.getCatalogCache();
+            for (Low low : placed){
+               catalogs.addUnits(low.storeID, low.productName, low.units);
+               ++report.requests;
+               report.units += low.units;
+            }//end for
+         }finally{
+            // release() rolls back whatever was not committed.
+            pool.release(conn);
+         }//end try
+      }//end while
+      report.elapsedMillis = System.currentTimeMillis() - start;
+      return report;
+   }//end runOnce
+
+   // false if another engine is replenishing.
+   private boolean lockBatch(Connection conn) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement(BATCH_LOCK);
+      try{
+         ResultSet rs = stmt.executeQuery();
+         boolean locked = rs.next() && rs.getBoolean(1);
+         rs.close();
+         return locked;
+      }finally{
+         stmt.close();
+      }
+   }//end lockBatch
+
+   private void readLow(Connection conn, int lastStore, String lastName, List<Low> batch) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement(LOW_STOCK);
+      try{
+         stmt.setInt(1, this.defaultTarget);
+         stmt.setInt(2, this.defaultThreshold);
+         stmt.setInt(3, lastStore);
+         stmt.setString(4, lastName);
+         stmt.setInt(5, this.batchSize);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            batch.add(new Low(rs.getInt(1), rs.getString(2).trim(), rs.getInt(4)));
+         rs.close();
+      }finally{
+         stmt.close();
+      }
+   }//end readLow
+
+   // fills in manager and nearest warehouse; drops stores the snapshot
+   // does not know yet and everything if there are no warehouses.
+   private List<Low> assignWarehouses(List<Low> batch) throws SQLException {
+      ReferenceData ref = this.esql.getReferenceCache().get();
+      ResultTable stores = ref.getStores();
+      GeoIndex warehouses = ref.getWarehouseIndex();
+      List<Low> placed = new ArrayList<Low>(batch.size());
+      if (warehouses.size() == 0)
+         return placed;
+      int cachedStore = Integer.MIN_VALUE;
+      int manager = 0, warehouse = 0;
+      for (Low low : batch){
+         // a batch is in store order, so look each store up once.
+         if (low.storeID != cachedStore){
+            int r = ref.storeRow(low.storeID);
+            cachedStore = low.storeID;
+            if (r < 0){
+               manager = -1;
+            }else{
+               manager = stores.getInt(r, ReferenceData.STORE_MANAGER);
+               warehouse = warehouses.getId(warehouses.nearest(
+                  stores.getDouble(r, ReferenceData.STORE_LATITUDE),
+                  stores.getDouble(r, ReferenceData.STORE_LONGITUDE), 1)[0]);
+            }
+         }
+         if (manager < 0 || low.units <= 0)
+            continue;
+         low.managerID = manager;
+         low.warehouseID = warehouse;
+         placed.add(low);
+      }//end for
+      return placed;
+   }//end assignWarehouses
+
+   private void insertRequests(Connection conn, List<Low> placed) throws SQLException {
+      StringBuilder sql = new StringBuilder(
+         "INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested) VALUES ");
+      OrderIngestor.appendTuples(sql, placed.size(), "?, ?, ?, ?, ?");
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      try{
+         int i = 1;
+         for (Low low : placed){
+            stmt.setInt(i++, low.managerID);
+            stmt.setInt(i++, low.warehouseID);
+            stmt.setInt(i++, low.storeID);
+            stmt.setString(i++, low.productName);
+            stmt.setInt(i++, low.units);
+         }//end for
+         stmt.executeUpdate();
+      }finally{
+         stmt.close();
+      }
+   }//end insertRequests
+
+   private void addStock(Connection conn, List<Low> placed) throws SQLException {
+      StringBuilder sql = new StringBuilder(
+         "INSERT INTO InventoryMovement (storeID, productName, delta, reason) VALUES ");
+      OrderIngestor.appendTuples(sql, placed.size(), "?, ?, ?, 'supply'");
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      try{
+         int i = 1;
+         for (Low low : placed){
+            stmt.setInt(i++, low.storeID);
+            stmt.setString(i++, low.productName);
+            stmt.setInt(i++, low.units);
+         }//end for
+         stmt.executeUpdate();
+      }finally{
+         stmt.close();
+      }
+   }//end addStock
+
+   /**
+    * Replenishes once, or every interval until the process is stopped.
+    *
+    * @param args dbname port user [--once]
+    */
+   public static void main(String[] args) {
+      boolean once = args.length == 4 && args[3].equals("--once");
+      if (args.length != 3 && !once) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ReplenishmentEngine.class.getName () +
+            " <dbname> <port> <user> [--once]");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         esql = new Retail (args[0], args[1], args[2], "");
+         final ReplenishmentEngine engine = new ReplenishmentEngine(esql);
+         System.out.println(engine.runOnce());
+         if (!once){
+            final CountDownLatch stopped = new CountDownLatch(1);
+            final Thread mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread("replenishment-shutdown") {
+               public void run() {
+                  engine.stop();
+                  stopped.countDown();
+                  try{
+                     // let main close the connections before the JVM exits.
+                     mainThread.join(10000);
+                  }catch (InterruptedException e){
+                     // exiting anyway.
+                  }
+               }
+            });
+            engine.start();
+            stopped.await();
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end ReplenishmentEngine
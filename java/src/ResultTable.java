@@ -0,0 +1,325 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Column-oriented, typed copy of a query result.  Integer columns are read
+ * with getInt into int[], bigint columns with getLong into long[], numeric
+ * and floating point columns with getDouble into double[], and everything
+ * else as trimmed Strings.  Rows and columns are numbered from 0, like the
+ * List&lt;List&lt;String&gt;&gt; results.  A Cursor walks the rows without
+ * allocating anything per row.
+ *
+ */
+public class ResultTable {
+
+   static final int INT = 0;
+   static final int LONG = 1;
+   static final int DOUBLE = 2;
+   static final int STRING = 3;
+
+   private final String[] names;
+   private final int[] kinds;
+   private final int[][] ints;
+   private final long[][] longs;
+   private final double[][] doubles;
+   private final String[][] strings;
+   private final boolean[][] nulls;
+   private int rows;
+
+   private ResultTable(String[] names, int[] kinds, int capacity) {
+      int n = names.length;
+      this.names = names;
+      this.kinds = kinds;
+      this.ints = new int[n][];
+      this.longs = new long[n][];
+      this.doubles = new double[n][];
+      this.strings = new String[n][];
+      this.nulls = new boolean[n][];
+      for (int c = 0; c < n; ++c){
+         switch (kinds[c]){
+            case INT: this.ints[c] = new int[capacity]; break;
+            case LONG: this.longs[c] = new long[capacity]; break;
+            case DOUBLE: this.doubles[c] = new double[capacity]; break;
+            default: this.strings[c] = new String[capacity]; break;
+         }
+         this.nulls[c] = new boolean[capacity];
+      }//end for
+   }//end ResultTable
+
+   /**
+    * Reads every remaining row of rs into a new table.
+    *
+    * @param rs the result set to copy
+    * @return the typed result
+    * @throws java.sql.SQLException when reading the result fails
+    */
+   public static ResultTable read(ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+      String[] names = new String[numCol];
+      int[] kinds = new int[numCol];
+      for (int c = 0; c < numCol; ++c){
+         names[c] = rsmd.getColumnName (c + 1);
+         kinds[c] = kindOf (rsmd.getColumnType (c + 1));
+      }//end for
+
+      ResultTable table = new ResultTable(names, kinds, 16);
+      while (rs.next ()){
+         table.ensureCapacity (table.rows + 1);
+         int r = table.rows;
+         for (int c = 0; c < numCol; ++c){
+            switch (kinds[c]){
+               case INT:
+                  table.ints[c][r] = rs.getInt (c + 1);
+                  break;
+               case LONG:
+                  table.longs[c][r] = rs.getLong (c + 1);
+                  break;
+               case DOUBLE:
+                  table.doubles[c][r] = rs.getDouble (c + 1);
+                  break;
+               default:
+                  String v = rs.getString (c + 1);
+                  table.strings[c][r] = v == null ? null : v.trim ();
+                  break;
+            }
+            table.nulls[c][r] = rs.wasNull ();
+         }//end for
+         ++table.rows;
+      }//end while
+      return table;
+   }//end read
+
+   static int kindOf(int sqlType) {
+      switch (sqlType){
+         case Types.INTEGER:
+         case Types.SMALLINT:
+         case Types.TINYINT:
+            return INT;
+         case Types.BIGINT:
+            return LONG;
+         case Types.NUMERIC:
+         case Types.DECIMAL:
+         case Types.DOUBLE:
+         case Types.FLOAT:
+         case Types.REAL:
+            return DOUBLE;
+         default:
+            return STRING;
+      }
+   }//end kindOf
+
+   public int size() { return this.rows; }
+   public int columnCount() { return this.names.length; }
+   public String columnName(int col) { return this.names[col]; }
+
+   /**
+    * @return how the column is stored: INT, LONG, DOUBLE or STRING
+    */
+   public int kind(int col) { return this.kinds[col]; }
+
+   /**
+    * @return the 0-based index of the named column, or -1
+    */
+   public int columnIndex(String name) {
+      for (int c = 0; c < this.names.length; ++c){
+         if (this.names[c].equalsIgnoreCase (name))
+            return c;
+      }//end for
+      return -1;
+   }//end columnIndex
+
+   public boolean isNull(int row, int col) {
+      return this.nulls[col][row];
+   }//end isNull
+
+   public int getInt(int row, int col) {
+      switch (this.kinds[col]){
+         case INT: return this.ints[col][row];
+         case LONG: return (int) this.longs[col][row];
+         case DOUBLE: return (int) this.doubles[col][row];
+         default: return Integer.parseInt (this.strings[col][row]);
+      }
+   }//end getInt
+
+   public long getLong(int row, int col) {
+      switch (this.kinds[col]){
+         case INT: return this.ints[col][row];
+         case LONG: return this.longs[col][row];
+         case DOUBLE: return (long) this.doubles[col][row];
+         default: return Long.parseLong (this.strings[col][row]);
+      }
+   }//end getLong
+
+   public double getDouble(int row, int col) {
+      switch (this.kinds[col]){
+         case INT: return this.ints[col][row];
+         case LONG: return this.longs[col][row];
+         case DOUBLE: return this.doubles[col][row];
+         default: return Double.parseDouble (this.strings[col][row]);
+      }
+   }//end getDouble
+
+   /**
+    * @return the value as text; typed columns are formatted on each call
+    */
+   public String getString(int row, int col) {
+      if (this.nulls[col][row])
+         return null;
+      switch (this.kinds[col]){
+         case INT: return String.valueOf (this.ints[col][row]);
+         case LONG: return String.valueOf (this.longs[col][row]);
+         case DOUBLE: return String.valueOf (this.doubles[col][row]);
+         default: return this.strings[col][row];
+      }
+   }//end getString
+
+   /**
+    * @return the raw int[] of an integer column; only the first size()
+    *         entries are rows
+    */
+   public int[] intColumn(int col) { return this.ints[col]; }
+   public long[] longColumn(int col) { return this.longs[col]; }
+   public double[] doubleColumn(int col) { return this.doubles[col]; }
+   public String[] stringColumn(int col) { return this.strings[col]; }
+
+   // shares every column of from except col, which is copied.
+   private ResultTable(ResultTable from, int col) {
+      this.names = from.names;
+      this.kinds = from.kinds;
+      this.ints = from.ints.clone();
+      this.longs = from.longs.clone();
+      this.doubles = from.doubles.clone();
+      this.strings = from.strings.clone();
+      this.nulls = from.nulls.clone();
+      this.rows = from.rows;
+      switch (this.kinds[col]){
+         case INT: this.ints[col] = Arrays.copyOf (from.ints[col], from.rows); break;
+         case LONG: this.longs[col] = Arrays.copyOf (from.longs[col], from.rows); break;
+         case DOUBLE: this.doubles[col] = Arrays.copyOf (from.doubles[col], from.rows); break;
+         default: this.strings[col] = Arrays.copyOf (from.strings[col], from.rows); break;
+      }
+      this.nulls[col] = Arrays.copyOf (from.nulls[col], from.rows);
+   }//end ResultTable
+
+   /**
+    * @return a table whose column col can be changed with setInt or
+    *         setDouble without affecting this one; the other columns are
+    *         shared, not copied
+    */
+   ResultTable copyColumn(int col) {
+      return new ResultTable(this, col);
+   }//end copyColumn
+
+   /**
+    * @param rows the rows to take, in the order wanted
+    * @param cols the columns to take, in the order wanted
+    * @return a new table of the given rows and columns of this one
+    */
+   ResultTable pick(int[] rows, int... cols) {
+      String[] names = new String[cols.length];
+      int[] kinds = new int[cols.length];
+      for (int c = 0; c < cols.length; ++c){
+         names[c] = this.names[cols[c]];
+         kinds[c] = this.kinds[cols[c]];
+      }//end for
+      ResultTable table = new ResultTable(names, kinds, rows.length);
+      for (int c = 0; c < cols.length; ++c){
+         int from = cols[c];
+         for (int r = 0; r < rows.length; ++r){
+            switch (kinds[c]){
+               case INT: table.ints[c][r] = this.ints[from][rows[r]]; break;
+               case LONG: table.longs[c][r] = this.longs[from][rows[r]]; break;
+               case DOUBLE: table.doubles[c][r] = this.doubles[from][rows[r]]; break;
+               default: table.strings[c][r] = this.strings[from][rows[r]]; break;
+            }
+            table.nulls[c][r] = this.nulls[from][rows[r]];
+         }//end for
+      }//end for
+      table.rows = rows.length;
+      return table;
+   }//end pick
+
+   // only for columns of your own, e.g. from copyColumn(); the column must be INT.
+   void setInt(int row, int col, int value) {
+      this.ints[col][row] = value;
+      this.nulls[col][row] = false;
+   }//end setInt
+
+   // only for columns of your own; the column must be DOUBLE.
+   void setDouble(int row, int col, double value) {
+      this.doubles[col][row] = value;
+      this.nulls[col][row] = false;
+   }//end setDouble
+
+   /**
+    * @return the size of the values held: numbers at their binary width,
+    *         text one byte per character
+    */
+   public long byteSize() {
+      long bytes = 0;
+      for (int c = 0; c < this.kinds.length; ++c){
+         switch (this.kinds[c]){
+            case INT: bytes += 4L * this.rows; break;
+            case LONG:
+            case DOUBLE: bytes += 8L * this.rows; break;
+            default:
+               for (int r = 0; r < this.rows; ++r){
+                  if (this.strings[c][r] != null)
+                     bytes += this.strings[c][r].length();
+               }//end for
+         }
+      }//end for
+      return bytes;
+   }//end byteSize
+
+   /**
+    * @return a cursor positioned before the first row
+    */
+   public Cursor cursor() {
+      return new Cursor();
+   }//end cursor
+
+   private void ensureCapacity(int needed) {
+      int capacity = this.nulls.length == 0 ? Integer.MAX_VALUE : this.nulls[0].length;
+      if (needed <= capacity)
+         return;
+      int grown = Math.max (needed, capacity * 2);
+      for (int c = 0; c < this.names.length; ++c){
+         switch (this.kinds[c]){
+            case INT: this.ints[c] = Arrays.copyOf (this.ints[c], grown); break;
+            case LONG: this.longs[c] = Arrays.copyOf (this.longs[c], grown); break;
+            case DOUBLE: this.doubles[c] = Arrays.copyOf (this.doubles[c], grown); break;
+            default: this.strings[c] = Arrays.copyOf (this.strings[c], grown); break;
+         }
+         this.nulls[c] = Arrays.copyOf (this.nulls[c], grown);
+      }//end for
+   }//end ensureCapacity
+
+   /**
+    * Forward-only view over the rows of the table.  The same object is
+    * repositioned on every next(), so walking the rows allocates nothing.
+    */
+   public class Cursor {
+      private int row = -1;
+
+      public boolean next() {
+         if (this.row + 1 >= ResultTable.this.rows)
+            return false;
+         ++this.row;
+         return true;
+      }//end next
+
+      public void reset() { this.row = -1; }
+      public int getRow() { return this.row; }
+      public boolean isNull(int col) { return ResultTable.this.isNull (this.row, col); }
+      public int getInt(int col) { return ResultTable.this.getInt (this.row, col); }
+      public long getLong(int col) { return ResultTable.this.getLong (this.row, col); }
+      public double getDouble(int col) { return ResultTable.this.getDouble (this.row, col); }
+      public String getString(int col) { return ResultTable.this.getString (this.row, col); }
+   }//end Cursor
+
+}//end ResultTable
@@ -37,26 +37,48 @@ import java.util.Date;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
+ * work with PostgreSQL JDBC drivers.  The retail operations themselves are in
+ * RetailService; the console menu in main is one client of it.
  *
  */
 public class Retail {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all query helpers.
+   private ConnectionPool _pool = null;
+
+   // stores and warehouses, read once and swapped when they change.
+   private final ReferenceCache _reference = new ReferenceCache(this);
+
+   // folds the inventory ledger into Product in the background.
+   private final InventoryCompactor _compactor = new InventoryCompactor(this);
+
+   // queues ProductUpdates rows and writes them in batches.
+   private final AuditWriter _audit = new AuditWriter(this);
+
+   // products of recently browsed stores; see CatalogCache.
+   private final CatalogCache _catalog = new CatalogCache(this);
+
+   // timings of every statement the helpers below run.
+   private final SqlStats _sqlStats = new SqlStats();
+
+   // rows fetched per round trip by streamed queries.
+   private final int _fetchSize = Integer.getInteger("retail.fetchSize", 500);
+
+   // false once the driver turned setFetchSize down.
+   private volatile boolean _cursorFetch = true;
+
+   // the explicit cursor of streamed queries when the driver has none.
+   private static final String STREAM_CURSOR = "DECLARE retail_stream NO SCROLL CURSOR FOR ";
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
                                 new InputStreamReader(System.in));
 
-
-   public static String globalID;
-   public static String globalLat;
-   public static String globalLong;
-   public static String globalType;
    /**
-    * Creates a new instance of Retail shop
+    * Creates a new instance of Retail shop.  The connection pool is sized by
+    * the retail.pool.minSize, retail.pool.maxSize, retail.pool.idleTimeoutSec
+    * and retail.pool.borrowTimeoutSec system properties.
     *
     * @param hostname the MySQL or PostgreSQL server hostname
     * @param database the name of the database
@@ -72,14 +94,26 @@ public class Retail {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd,
+            Integer.getInteger("retail.pool.minSize", 1),
+            Integer.getInteger("retail.pool.maxSize", 8),
+            Long.getLong("retail.pool.idleTimeoutSec", 300L) * 1000L,
+            Long.getLong("retail.pool.borrowTimeoutSec", 30L) * 1000L);
+         this._sqlStats.register();
+         this._compactor.start();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
          System.exit(-1);
       }//end catch
+      try{
+         this._reference.get();
+      }catch (SQLException e){
+         // retried on first use.
+         System.err.println("Warning - Unable to load stores and warehouses: " + e.getMessage() );
+      }//end catch
    }//end Retail
 
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
@@ -88,6 +122,45 @@ public class Retail {
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+
+   /**
+    * Returns the connection pool behind the query helpers, e.g. to read its
+    * active/idle/wait metrics.
+    */
+   public ConnectionPool getConnectionPool() {
+      return this._pool;
+   }//end getConnectionPool
+
+   /**
+    * Returns the cache of store catalogs.  Code that writes to Product
+    * must report its writes to it.
+    */
+   public CatalogCache getCatalogCache() {
+      return this._catalog;
+   }//end getCatalogCache
+
+   /**
+    * Returns the per-template statement statistics of the query helpers.
+    */
+   public SqlStats getSqlStats() {
+      return this._sqlStats;
+   }//end getSqlStats
+
+   /**
+    * Returns the writer of the ProductUpdates audit trail.
+    */
+   public AuditWriter getAuditWriter() {
+      return this._audit;
+   }//end getAuditWriter
+
+   /**
+    * Returns the in-memory stores and warehouses.  Code that writes to
+    * Store or Warehouse should invalidate it.
+    */
+   public ReferenceCache getReferenceCache() {
+      return this._reference;
+   }//end getReferenceCache
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -96,58 +169,211 @@ public class Retail {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rows = 0;
+      boolean failed = true;
+      try{
+         // creates a statement object
+         Statement stmt = conn.createStatement ();
+
+         // issues the update instruction
+         rows = stmt.executeUpdate (sql);
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // close the instruction
+         stmt.close ();
+         failed = false;
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (sql, null, start, end, end, rows, 0, failed);
+      }
+   }//end executeUpdate
 
-      // close the instruction
-      stmt.close ();
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is prepared once per connection and reused from the statement cache.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime ();
+      int rows = 0;
+      boolean failed = true;
+      try{
+         PreparedStatement stmt = this._pool.prepare (conn, sql);
+         bind (stmt, params);
+         rows = stmt.executeUpdate ();
+         failed = false;
+         return rows;
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (sql, params, start, end, end, rows, 0, failed);
+      }
    }//end executeUpdate
 
+   /**
+    * Method to call a database function that changes data and returns
+    * whether it did, e.g. SELECT set_stock(...).  The driver only runs
+    * statements without a result through executeUpdate, so the call is
+    * sent as a query and its one boolean is read back.
+    *
+    * @param sql a SELECT of one boolean function call, with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the value the function returned, false if it returned null
+    * @throws java.sql.SQLException when the call failed
+    */
+   public boolean executeCall (String sql, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      boolean done = false;
+      boolean failed = true;
+      try{
+         PreparedStatement stmt = this._pool.prepare (conn, sql);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         executed = System.nanoTime ();
+         try{
+            done = rs.next () && rs.getBoolean (1);
+         }finally{
+            rs.close ();
+         }
+         failed = false;
+         return done;
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (sql, params, start, executed, end, done ? 1 : 0, failed ? 0 : 1, failed);
+      }
+   }//end executeCall
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * standard out.  Rows are streamed, so the whole result is never held
+    * in memory.
     *
     * @param query the input query string
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      return executeQueryStreaming (query, new RowPrinter ());
+   }//end executeQuery
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Parameterized variant of executeQueryAndPrintResult.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      return executeQueryStreaming (query, new RowPrinter (), params);
+   }//end executeQueryAndPrintResult
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * hand every row to handler as it arrives.  The query runs inside a
+    * transaction with a fetch size of retail.fetchSize rows, so with a
+    * driver that supports it Postgres serves it from a server-side cursor
+    * and memory stays bounded no matter how many rows it returns.  Drivers
+    * without cursor fetching, like the pg73jdbc3 in lib, refuse the fetch
+    * size; the query is then run through an explicit DECLARE ... CURSOR and
+    * read with FETCH, retail.fetchSize rows at a time, which bounds memory
+    * the same way.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param handler called once per row
+    * @param params values bound to the placeholders in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryStreaming (String query, RowHandler handler, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0, bytes = 0;
       int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+      boolean failed = true;
+      try{
+         // cursors only live inside a transaction.
+         conn.setAutoCommit (false);
+         PreparedStatement stmt = null;
+         if (this._cursorFetch){
+            stmt = this._pool.prepare (conn, query);
+            bind (stmt, params);
+            try{
+               stmt.setFetchSize (this._fetchSize);
+            }catch (SQLException e){
+               // pg73jdbc3 does not implement it and would buffer the result.
+               this._cursorFetch = false;
+               stmt = null;
+            }
+         }
+         int[] widths = null;
+         if (stmt != null){
+            ResultSet rs = stmt.executeQuery ();
+            executed = System.nanoTime ();
+            try{
+               while (rs.next ()){
+                  handler.handleRow (rs);
+                  ++rowCount;
+                  if (widths == null)
+                     widths = columnWidths (rs.getMetaData ());
+                  bytes += rowBytes (rs, widths);
+               }//end while
+            }finally{
+               rs.close ();
+            }
+         }else{
+            PreparedStatement declare = conn.prepareStatement (STREAM_CURSOR + query);
+            try{
+               bind (declare, params);
+               declare.execute ();
+            }finally{
+               declare.close ();
+            }
+            executed = System.nanoTime ();
+            Statement fetch = conn.createStatement ();
+            try{
+               String next = "FETCH FORWARD " + this._fetchSize + " FROM retail_stream";
+               int fetched;
+               do{
+                  fetched = 0;
+                  ResultSet rs = fetch.executeQuery (next);
+                  try{
+                     while (rs.next ()){
+                        handler.handleRow (rs);
+                        ++fetched;
+                        if (widths == null)
+                           widths = columnWidths (rs.getMetaData ());
+                        bytes += rowBytes (rs, widths);
+                     }//end while
+                  }finally{
+                     rs.close ();
+                  }
+                  rowCount += fetched;
+               }while (fetched == this._fetchSize);
+            }finally{
+               fetch.close ();
+            }
+         }
+         // the commit also closes the cursor.
+         conn.commit ();
+         failed = false;
+         return rowCount;
+      }finally{
+         long end = System.nanoTime ();
+         // release() rolls back and restores autocommit.
+         this._pool.release (conn);
+         this._sqlStats.record (query, params, start, executed, end, rowCount, bytes, failed);
+      }
+   }//end executeQueryStreaming
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -159,33 +385,92 @@ public class Retail {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      List<List<String>> result = null;
+      try{
+         // creates a statement object
+         Statement stmt = conn.createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         executed = System.nanoTime ();
+         result = readRows (rs);
+         stmt.close ();
+         return result;
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (query, null, start, executed, end,
+            result == null ? 0 : result.size (), byteSize (result), result == null);
+      }
+   }//end executeQueryAndReturnResult
 
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   /**
+    * Parameterized variant of executeQueryAndReturnResult.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      List<List<String>> result = null;
+      try{
+         PreparedStatement stmt = this._pool.prepare (conn, query);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         executed = System.nanoTime ();
+         try{
+            result = readRows (rs);
+            return result;
+         }finally{
+            rs.close ();
+         }
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (query, params, start, executed, end,
+            result == null ? 0 : result.size (), byteSize (result), result == null);
+      }
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as a
+    * typed, column-oriented table, reading each column with its native
+    * JDBC getter instead of as a String.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the query result as a ResultTable
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      ResultTable result = null;
+      try{
+         PreparedStatement stmt = this._pool.prepare (conn, query);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         executed = System.nanoTime ();
+         try{
+            result = ResultTable.read (rs);
+            return result;
+         }finally{
+            rs.close ();
+         }
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (query, params, start, executed, end,
+            result == null ? 0 : result.size (), result == null ? 0 : result.byteSize (), result == null);
+      }
+   }//end executeQueryAndReturnTable
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
@@ -195,51 +480,214 @@ public class Retail {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      int rowCount = -1;
+      try{
+         // creates a statement object
+         Statement stmt = conn.createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         executed = System.nanoTime ();
+         rowCount = countRows (rs);
+         stmt.close ();
+         return rowCount;
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (query, null, start, executed, end, rowCount, 0, rowCount < 0);
+      }
+   }
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Parameterized variant of executeQuery.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param params values bound to the placeholders in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      Connection conn = this._pool.borrow ();
+      long start = System.nanoTime (), executed = 0;
+      int rowCount = -1;
+      try{
+         PreparedStatement stmt = this._pool.prepare (conn, query);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         executed = System.nanoTime ();
+         try{
+            rowCount = countRows (rs);
+            return rowCount;
+         }finally{
+            rs.close ();
+         }
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (query, params, start, executed, end, rowCount, 0, rowCount < 0);
+      }
+   }//end executeQuery
 
-       int rowCount = 0;
+   // binds params to the ? placeholders of stmt in order.
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i){
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }//end for
+   }//end bind
+
+   // outputs every row to standard out, preceded by a header line.
+   static class RowPrinter implements RowHandler {
+      private boolean outputHeader = true;
+
+      public void handleRow (ResultSet rs) throws SQLException {
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         if(outputHeader){
+            for(int i = 1; i <= numCol; i++){
+               System.out.print(rsmd.getColumnName(i) + "\t");
+            }
+            System.out.println();
+            outputHeader = false;
+         }
+         for (int i=1; i<=numCol; ++i)
+            System.out.print (rs.getString (i) + "\t");
+         System.out.println ();
+      }
+   }//end RowPrinter
+
+   // outputs a table to standard out, preceded by a header line.
+   static void printTable (ResultTable table) {
+      for (int c = 0; c < table.columnCount(); ++c)
+         System.out.print(table.columnName(c) + "\t");
+      System.out.println();
+      for (int r = 0; r < table.size(); ++r){
+         for (int c = 0; c < table.columnCount(); ++c)
+            System.out.print(table.getString(r, c) + "\t");
+         System.out.println();
+      }//end for
+   }//end printTable
+
+   // saves every row of rs as a list of attribute values.
+   static List<List<String>> readRows (ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+      // iterates through the result set and saves the data returned by the query.
+      List<List<String>> result  = new ArrayList<List<String>>();
+      while (rs.next()){
+         List<String> record = new ArrayList<String>();
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
+         result.add(record);
+      }//end while
+      return result;
+   }//end readRows
+
+   // size of rows as counted by SqlStats, one byte per character.
+   static long byteSize (List<List<String>> rows) {
+      long bytes = 0;
+      if (rows != null){
+         for (List<String> row : rows){
+            for (String v : row){
+               if (v != null)
+                  bytes += v.length ();
+            }//end for
+         }//end for
+      }
+      return bytes;
+   }//end byteSize
+
+   // binary width of each column as ResultTable stores it, 0 for text.
+   static int[] columnWidths (ResultSetMetaData meta) throws SQLException {
+      int[] widths = new int[meta.getColumnCount ()];
+      for (int c = 0; c < widths.length; ++c){
+         switch (ResultTable.kindOf (meta.getColumnType (c + 1))){
+            case ResultTable.INT: widths[c] = 4; break;
+            case ResultTable.STRING: widths[c] = 0; break;
+            default: widths[c] = 8;
+         }
+      }//end for
+      return widths;
+   }//end columnWidths
+
+   // size of the current row, counted like ResultTable.byteSize().
+   static long rowBytes (ResultSet rs, int[] widths) throws SQLException {
+      long bytes = 0;
+      for (int c = 0; c < widths.length; ++c){
+         if (widths[c] > 0){
+            bytes += widths[c];
+         }else{
+            String v = rs.getString (c + 1);
+            if (v != null)
+               bytes += v.length ();
+         }
+      }//end for
+      return bytes;
+   }//end rowBytes
+
+   // iterates through the result set and count nuber of results.
+   static int countRows (ResultSet rs) throws SQLException {
+      int rowCount = 0;
+      while (rs.next()){
+         rowCount++;
+      }//end while
+      return rowCount;
+   }//end countRows
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval is local to
+    * a database session, so with pooled connections this only sees values
+    * drawn on the connection it happens to borrow.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+      Connection conn = this._pool.borrow ();
+      String sql = String.format("Select currval('%s')", sequence);
+      long start = System.nanoTime (), executed = 0;
+      boolean failed = true;
+      try{
+         Statement stmt = conn.createStatement ();
+         try{
+            ResultSet rs = stmt.executeQuery (sql);
+            executed = System.nanoTime ();
+            int value = rs.next() ? rs.getInt(1) : -1;
+            failed = false;
+            return value;
+         }finally{
+            stmt.close ();
+         }
+      }finally{
+         long end = System.nanoTime ();
+         this._pool.release (conn);
+         this._sqlStats.record (sql, null, start, executed, end, failed ? 0 : 1, failed ? 0 : 4, failed);
+      }
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to stop the inventory compaction, write the queued audit rows
+    * and close the pooled physical connections and the slow-query log.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._compactor.stop ();
+      this._audit.close ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+      this._sqlStats.close ();
    }//end cleanup
 
    /**
@@ -248,12 +696,13 @@ public class Retail {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean serve = args.length == 5 && args[3].equals("--serve");
+      if (args.length != 3 && !serve) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Retail.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--serve <httpPort>]");
          return;
       }//end if
 
@@ -268,6 +717,12 @@ public class Retail {
          String dbport = args[1];
          String user = args[2];
          esql = new Retail (dbname, dbport, user, "");
+         RetailService service = new RetailService(esql);
+
+         if (serve) {
+            serve(service, Integer.parseInt(args[4]));
+            return;
+         }
 
          boolean keepon = true;
          while(keepon) {
@@ -277,59 +732,15 @@ public class Retail {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            Session session = null;
             switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 1: CreateUser(service); break;
+               case 2: session = LogIn(service); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                
-		System.out.println("1. View Stores within 30 miles");
-                System.out.println("2. View Product List");
-                
-		if(globalType.equals("customer")){
-		System.out.println("3. Place a Order");
-                System.out.println("4. View 5 recent orders");
-		}		
-
-		if(globalType.equals("manager")){
-                //the following functionalities basically used by managers
-                System.out.println("5. Update Product");
-                System.out.println("6. View 5 recent Product Updates Info");
-                System.out.println("7. View 5 Popular Items");
-                System.out.println("8. View 5 Popular Customers");
-                System.out.println("9. Place Product Supply Request to Warehouse");
-		};
-
-		if(globalType.equals("admin")){
-		System.out.println("10. Update Users");
-		System.out.println("11. Update Product");
-		}
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewStores(esql); break;
-                   case 2: viewProducts(esql); break;
-                   case 3: placeOrder(esql); break;
-                   case 4: viewRecentOrders(esql); break;
-                   case 5: updateProduct(esql); break;
-                   case 6: viewRecentUpdates(esql); break;
-                   case 7: viewPopularProducts(esql); break;
-                   case 8: viewPopularCustomers(esql); break;
-                   case 9: placeProductSupplyRequests(esql); break;
-		   case 10: updateUserAdmin(esql); break;
-		   case 11: updateProductAdmin(esql);break;
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
+            if (session != null) {
+              runSession(service, session);
             }
          }//end while
       }catch(Exception e) {
@@ -348,6 +759,39 @@ public class Retail {
       }//end try
    }//end main
 
+   /*
+    * Serves the service over HTTP instead of the console menu until the
+    * process is told to stop; main then closes the connections.
+    */
+   private static void serve(RetailService service, int httpPort) throws Exception {
+      final RetailHttpServer server = new RetailHttpServer(service, httpPort);
+      // low stock is topped up in the background with -Dretail.replenish.enabled=true.
+      final ReplenishmentEngine replenisher = Boolean.getBoolean("retail.replenish.enabled")
+         ? new ReplenishmentEngine(service.getRetail()) : null;
+      final java.util.concurrent.CountDownLatch stopped = new java.util.concurrent.CountDownLatch(1);
+      final Thread mainThread = Thread.currentThread();
+      Runtime.getRuntime().addShutdownHook(new Thread("http-shutdown") {
+         public void run() {
+            server.stop(5);
+            if (replenisher != null)
+               replenisher.stop();
+            stopped.countDown();
+            try{
+               // let main close the connections before the JVM exits.
+               mainThread.join(10000);
+            }catch (InterruptedException e){
+               // exiting anyway.
+            }
+         }
+      });
+      server.start();
+      if (replenisher != null)
+         replenisher.start();
+      System.out.println("Serving HTTP on port " + server.getPort()
+         + (SessionThreads.isVirtual() ? " (virtual threads)" : ""));
+      stopped.await();
+   }//end serve
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -355,6 +799,70 @@ public class Retail {
          "*******************************************************\n");
    }//end Greeting
 
+   /*
+    * Runs the menu of a logged in user on the session's own thread and
+    * waits for the user to log out.
+    **/
+   public static void runSession(final RetailService service, final Session session) throws InterruptedException {
+      Thread thread = SessionThreads.start("session-" + session.getUserID(), new Runnable() {
+         public void run() {
+            userMenu(service, session);
+         }
+      });
+      thread.join();
+   }//end runSession
+
+   /*
+    * The menu of a logged in user, until the user logs out.
+    **/
+   public static void userMenu(RetailService service, Session session) {
+      boolean usermenu = true;
+      while(usermenu) {
+        System.out.println("MAIN MENU");
+        System.out.println("---------");
+        
+		System.out.println("1. View Stores within 30 miles");
+        System.out.println("2. View Product List");
+        
+		if(session.is(Session.Role.CUSTOMER)){
+		System.out.println("3. Place a Order");
+        System.out.println("4. View 5 recent orders");
+		}		
+
+		if(session.is(Session.Role.MANAGER)){
+        //the following functionalities basically used by managers
+        System.out.println("5. Update Product");
+        System.out.println("6. View 5 recent Product Updates Info");
+        System.out.println("7. View 5 Popular Items");
+        System.out.println("8. View 5 Popular Customers");
+        System.out.println("9. Place Product Supply Request to Warehouse");
+		};
+
+		if(session.is(Session.Role.ADMIN)){
+		System.out.println("10. Update Users");
+		System.out.println("11. Update Product");
+		}
+        System.out.println(".........................");
+        System.out.println("20. Log out");
+        switch (readChoice()){
+           case 1: viewStores(service, session); break;
+           case 2: viewProducts(service, session); break;
+           case 3: placeOrder(service, session); break;
+           case 4: viewRecentOrders(service, session); break;
+           case 5: updateProduct(service, session); break;
+           case 6: viewRecentUpdates(service, session); break;
+           case 7: viewPopularProducts(service, session); break;
+           case 8: viewPopularCustomers(service, session); break;
+           case 9: placeProductSupplyRequests(service, session); break;
+		   case 10: updateUserAdmin(service, session); break;
+		   case 11: updateProductAdmin(service, session);break;
+
+           case 20: usermenu = false; break;
+           default : System.out.println("Unrecognized choice!"); break;
+        }
+      }
+   }//end userMenu
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -378,7 +886,7 @@ public class Retail {
    /*
     * Creates a new user
     **/
-   public static void CreateUser(Retail esql){
+   public static void CreateUser(RetailService service){
       try{
          System.out.print("\tEnter name: ");
          String name = in.readLine().trim();
@@ -389,22 +897,7 @@ public class Retail {
          System.out.print("\tEnter longitude: ");  //enter long value between [0.0, 100.0]
          String longitude = in.readLine();
          
-         String type="customer";
-
-	List<List<String>> check = esql.executeQueryAndReturnResult("select * from users");
-
-	for(int i = 0; i < check.size(); ++i){
-
-		String temp = check.get(i).get(1).trim();
-		if(temp.equals(name)){
-			throw new Exception("User with that name already exists");
-		}
-
-	} 
-
-			String query = String.format("INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('%s','%s', %s, %s,'%s')", name, password, latitude, longitude, type);
-
-         esql.executeUpdate(query);
+         service.createCustomer(name, password, Double.parseDouble(latitude.trim()), Double.parseDouble(longitude.trim()));
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -414,38 +907,16 @@ public class Retail {
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return Session of the user or null is the user does not exist
     **/
-   public static String LogIn(Retail esql){
+   public static Session LogIn(RetailService service){
       try{
          System.out.print("\tEnter name: ");
          String name = in.readLine();
          System.out.print("\tEnter password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-         int userNum = esql.executeQuery(query);
-	 if (userNum > 0){
-		
-		query = String.format("Select u.userID, u.latitude, u.longitude, u.type FROM Users u WHERE name = '%s' AND password = '%s'", name, password);
-		List<List<String>> extract = esql.executeQueryAndReturnResult(query);
-		String userid = extract.get(0).get(0);
-		globalID = userid;
-		globalLat = extract.get(0).get(1);
-		globalLong = extract.get(0).get(2);
-		globalType = extract.get(0).get(3).trim();
-		/*
-		System.out.print("\tUsers lat: ");
-		System.out.print(globalLat);
-		System.out.println();
-		System.out.print("\tUsers long: ");		
-		System.out.print(globalLong);
-		System.out.println();
-		*/
-
-		return name;
-	 }
-         return null;
+         return service.login(name, password);
       }catch(Exception e){
          System.err.println (e.getMessage ());
          return null;
@@ -456,53 +927,23 @@ public class Retail {
 
    /* view stores within 30 miles of users lat/long */
 
-	public static void viewStores(Retail esql) {
+	public static void viewStores(RetailService service, Session session) {
 		try{
 
-	  	/* QUERY EXAMPLE TO GRAB SOMETHING FROM USER GIVEN 'globalID'
-		String fuckthis = String.format("SELECT u.name FROM Users u WHERE userID = %s", globalID);
-
-		List<List<String>> myreturn = esql.executeQueryAndReturnResult(fuckthis);
-		
-		String namesies = myreturn.get(0).get(0);
-		System.out.print("\tName of current user found was: ");
-		System.out.print(namesies);
-		System.out.print("\n");
-		Name 
-		*/
-
-			double lat1 = Double.parseDouble(globalLat);
-			double long1 = Double.parseDouble(globalLong);
-
-			//gets all the store information into a hand List List
-			String query = "SELECT * FROM Store";
-			List<List<String>> extract = esql.executeQueryAndReturnResult(query);
-
-			//need to do a loop
+			//gets only the stores within 30 miles, nearest first
+			ResultTable.Cursor store = service.nearbyStores(session).cursor();
 			
 			System.out.print("\tResult:\n");
 
-			for(int i = 0; i < extract.size(); ++i){
-	
-				double tempLat = Double.parseDouble(extract.get(i).get(2));
-				double tempLong = Double.parseDouble(extract.get(i).get(3));
-
-				double gLat = Double.parseDouble(globalLat);
-				double gLong = Double.parseDouble(globalLong);
-
-				double test = calculateDistance(gLat, gLong, tempLat, tempLong);
-				
-				if(test < 30){
-
-					System.out.print("\tStore name: ");
-					System.out.print(extract.get(i).get(1));
-					System.out.println();
-					System.out.print("\tStore ID: ");
-					System.out.print(extract.get(i).get(0));
-					System.out.println();
-					System.out.println();
+			while(store.next()){
 
-				}
+				System.out.print("\tStore name: ");
+				System.out.print(store.getString(1));
+				System.out.println();
+				System.out.print("\tStore ID: ");
+				System.out.print(store.getInt(0));
+				System.out.println();
+				System.out.println();
 
 			}
 
@@ -515,45 +956,39 @@ public class Retail {
       }
 	}
 
-   public static void viewProducts(Retail esql) {
+   public static void viewProducts(RetailService service, Session session) {
 
 	try{
-	String saccquery="select storeID from store";
-	esql.executeQueryAndPrintResult(saccquery);
-	List<List<String>> s=esql.executeQueryAndReturnResult(saccquery);
+	ResultTable s=service.storeIDs(session);
+	printTable(s);
 	System.out.print("\tEnter Store ID to view products: ");
 	String input = in.readLine().trim();
 	boolean sacc=false;
 	while(!sacc){
-		for(int i=0;i<s.size();i++){
-			if(input.equals(s.get(i).get(0).trim())){
-				sacc=true;
-			}
+		try{
+			sacc=service.storeExists(Integer.parseInt(input));
+		}catch(NumberFormatException e){
+			sacc=false;
 		}
 		if(!sacc){
 			System.out.print("\tStoreID does not exist. Enter Store ID to view Products: ");
 			input=in.readLine().trim();
 		}
 	}
-	String query = "select productName, numberOfUnits, pricePerUnit ";
-	String q1 = "from Product where storeID = ";
-	
-	query = query + q1 + input;
-	
-	List<List<String>> extract = esql.executeQueryAndReturnResult(query);
+	ResultTable.Cursor product = service.storeProducts(session, Integer.parseInt(input)).cursor();
 
-	for(int i = 0; i < extract.size(); ++i){
+	while(product.next()){
 
 		System.out.print("\tProduct name: ");
-		System.out.print(extract.get(i).get(0));
+		System.out.print(product.getString(0));
 		System.out.println();	
 
 		System.out.print("\tNumber of available units: ");
-		System.out.print(extract.get(i).get(1));
+		System.out.print(product.getInt(1));
 		System.out.println();
 
 		System.out.print("\tPrice per unit: ");
-		System.out.print(extract.get(i).get(2));
+		System.out.print(product.getDouble(2));
 		System.out.println();
 		System.out.println();
 
@@ -563,40 +998,25 @@ public class Retail {
 		System.err.println (e.getMessage ());
 	}
    }
-   public static void placeOrder(Retail esql) {
+   public static void placeOrder(RetailService service, Session session) {
 	try{
 	
-		if(!globalType.equals("customer")){
+		if(!session.is(Session.Role.CUSTOMER)){
 			throw new Exception("\tInvalid entry, please try again.");
 		}
 			
 		Vector<String> available = new Vector<String>();
 
-		double lat1 = Double.parseDouble(globalLat);
-		double long1 = Double.parseDouble(globalLong);
-
-		String query = "SELECT * FROM Store";
-		List<List<String>> extract = esql.executeQueryAndReturnResult(query);
+		ResultTable nearby = service.nearbyStores(session);
 
 		System.out.println("\tAvailable stores in your area: ");
 
-		for(int i = 0; i < extract.size(); ++i){
-	
-			double tempLat = Double.parseDouble(extract.get(i).get(2));
-			double tempLong = Double.parseDouble(extract.get(i).get(3));
-
-			double gLat = Double.parseDouble(globalLat);
-			double gLong = Double.parseDouble(globalLong);
+		for(int i = 0; i < nearby.size(); ++i){
 
-			double test = calculateDistance(gLat, gLong, tempLat, tempLong);
-
-			if(test < 30){
-
-				String temp = extract.get(i).get(0);
-				available.add(temp);
-				System.out.println('\t');
-				System.out.print('\t'+extract.get(i).get(0));
-			}
+			String temp = String.valueOf(nearby.getInt(i, 0));
+			available.add(temp);
+			System.out.println('\t');
+			System.out.print('\t'+temp);
 
 		}
 
@@ -631,26 +1051,23 @@ public class Retail {
 		System.out.println("\tAvailable units at given store: ");
 		System.out.println();
 			
-		query = "select productName, numberOfUnits, pricePerUnit ";
-		String q1 = "from Product where storeID = ";
-	
-		query = query + q1 + input;
-		String savedLoc = input;	
+		int savedLoc = Integer.parseInt(input.trim());	
 
-		extract = esql.executeQueryAndReturnResult(query);
+		StoreCatalog catalog = service.catalog(savedLoc);
+		ResultTable.Cursor product = catalog.getProducts().cursor();
 
-		for(int i = 0; i < extract.size(); ++i){
+		while(product.next()){
 
 			System.out.print("\tProduct name: ");
-			System.out.print(extract.get(i).get(0));
+			System.out.print(product.getString(0));
 			System.out.println();	
 
 			System.out.print("\tNumber of available units: ");
-			System.out.print(extract.get(i).get(1));
+			System.out.print(product.getInt(1));
 			System.out.println();
 
 			System.out.print("\tPrice per unit: ");
-			System.out.print(extract.get(i).get(2));
+			System.out.print(product.getDouble(2));
 			System.out.println();
 			System.out.println();
 
@@ -679,25 +1096,13 @@ public class Retail {
 				System.out.print("Please enter an integer amount for units you wish to order: ");
 				}
 			}
-			String expectedpname = "";
-			int expectedamount = 0;
+			int expectedamount = catalog.units(porder);
 
-
-			for(int i = 0; i < extract.size(); ++i){
-
-				expectedpname = extract.get(i).get(0).trim();
-
-				expectedamount = Integer.parseInt(extract.get(i).get(1).trim());
-					
-				if(expectedpname.equals(porder)){
-					paccepted = true;
-					if(expectedamount >= uorder){
-						eaccepted = true;
-					}
+			if(expectedamount >= 0){
+				paccepted = true;
+				if(expectedamount >= uorder){
+					eaccepted = true;
 				}
-				
-
-
 			}
 
 			if(!paccepted){
@@ -712,33 +1117,13 @@ public class Retail {
 		}
 
 
-	Timestamp timeat = new Timestamp(System.currentTimeMillis());
-	String mytime = timeat.toString();
-	java.util.Date date =new java.util.Date();
+	//stock is re-checked and decremented atomically with the insert
+	int for_customer = service.placeOrder(session, savedLoc, porder, uorder);
 
-
-	String newOrder = String.format("insert into orders (ordernumber, customerID, storeID, productName, unitsOrdered, OrderTime) VALUES (DEFAULT, %s, %s, '%s', %d, '%s');", globalID, savedLoc, porder, uorder, date);
-
-
-
-
-	esql.executeUpdate(newOrder);   
-
-	query = "update product set numberofUnits=numberofUnits-";
-	Integer u = new Integer(uorder);
-	String uO =u.toString();
-	q1=" where storeID=";
-	String p=savedLoc.toString();
-	String p1=" and productName=";
-	String p2= porder.toString();
-	String quote="'";
-	query= query+quote+uO+quote+q1+quote+p+quote+p1+quote+p2+quote;
-	esql.executeUpdate(query);
-
-	String give_order = "select ordernumber from orders where customerid = '" + globalID + "'";
-
-	List<List<String>> quick = esql.executeQueryAndReturnResult(give_order);
-	String for_customer = quick.get(quick.size()-1).get(0);
+	if(for_customer < 0){
+		System.out.println("\tNumber of units not available anymore, order was not placed.");
+		return;
+	}
 	
 	String message = "\tOrder number " + for_customer + " has been successfully placed!";
 
@@ -752,44 +1137,51 @@ public class Retail {
 	
    
 }
-   public static  void viewRecentOrders(Retail esql) {
+   public static  void viewRecentOrders(RetailService service, Session session) {
 	 try{
 
-	if(!globalType.equals("customer")){
+	if(!session.is(Session.Role.CUSTOMER)){
 		throw new Exception("\tInvalid entry, please try again.");
 	}
 	
-        String query = "select o.storeID, s.name,o.productName,o.unitsOrdered, o.orderTime ";
-        String q1 = "from orders o, store s  where customerID = ";
-	String q2= " and s.storeID=o.storeID order by orderTime desc limit 5";
-	String q="'";
-        query = query + q1 +q+ globalID+q+ q2;
-
-        List<List<String>> extract = esql.executeQueryAndReturnResult(query);
+        ResultTable extract = service.recentOrders(session);
 
+        while(true){
         for(int i = 0; i < extract.size(); ++i){
 
                 System.out.print("\tStoreID: ");
-                System.out.print(extract.get(i).get(0));
+                System.out.print(extract.getString(i, 0));
                 System.out.println();
 
 		System.out.print("\tStore Name: ");
-                System.out.print(extract.get(i).get(1));
+                System.out.print(extract.getString(i, 1));
                 System.out.println();
 
                 System.out.print("\tProduct Name: ");
-                System.out.print(extract.get(i).get(2));
+                System.out.print(extract.getString(i, 2));
                 System.out.println();
 
                 System.out.print("\tUnits Ordered: ");
-                System.out.print(extract.get(i).get(3));
+                System.out.print(extract.getString(i, 3));
                 System.out.println();
 
 		System.out.print("\torderTime: ");
-                System.out.print(extract.get(i).get(4));
+                System.out.print(extract.getString(i, 4));
                 System.out.println();
                 System.out.println();
 
+        }
+        if(extract.size() < 5){
+                break;
+        }
+        // the next page starts after the last order shown.
+        System.out.print("\tShow older orders? (y/n): ");
+        String more = in.readLine();
+        if(more == null || !more.trim().toLowerCase().startsWith("y")){
+                break;
+        }
+        int last = extract.size() - 1;
+        extract = service.orderHistory(session, extract.getString(last, 4), extract.getInt(last, 5), 5);
         }
 	//System.out.println(extract);
         }
@@ -797,38 +1189,39 @@ public class Retail {
                 System.err.println (e.getMessage ());
         }
    }
-   public static void updateProductAdmin(Retail esql) {
+   public static void updateProductAdmin(RetailService service, Session session) {
 	try{	
 	
-		if(!globalType.equals("admin")){
+		if(!session.is(Session.Role.ADMIN)){
 			throw new Exception("\tInvalid entry, please try again.");
 		}
 	
-		String q="select * from product order by storeID";
-		List<List<String>>extract=esql.executeQueryAndReturnResult(q);
 		System.out.println("\tProduct List\n");
 		boolean uidacc=false;
                  boolean infoacc=false;
 		int expectedSid=0;
 		String expectedpname="";
 		int expectedNum=0;
-		for(int i=0; i<extract.size();i++){
-			System.out.print("\tStoreID: ");
-                	System.out.print(extract.get(i).get(0));
-                	System.out.print(", ");
-                
-                	System.out.print("\tProduct Name: ");
-                	System.out.print(extract.get(i).get(1));
-                	System.out.print(", ");
-                
-                	System.out.print("\tNumber of Units: ");
-                	System.out.print(extract.get(i).get(2));
-                	System.out.print(", ");
-
-                	System.out.print("\tPrice Per Unit: ");
-                	System.out.print(extract.get(i).get(3));
-	                System.out.println();
-		}
+		//streams the listing instead of loading the whole product table
+		service.forEachProduct(session, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				System.out.print("\tStoreID: ");
+				System.out.print(rs.getString(1));
+				System.out.print(", ");
+
+				System.out.print("\tProduct Name: ");
+				System.out.print(rs.getString(2));
+				System.out.print(", ");
+
+				System.out.print("\tNumber of Units: ");
+				System.out.print(rs.getString(3));
+				System.out.print(", ");
+
+				System.out.print("\tPrice Per Unit: ");
+				System.out.print(rs.getString(4));
+				System.out.println();
+			}
+		});
 	String updating="";
 	String pname="";
 	int sid=0;
@@ -841,11 +1234,8 @@ public class Retail {
 				try{
 					 expectedSid=Integer.parseInt(in.readLine().trim());	
 					
-					for(int i=0;i<extract.size();i++){
-						sid=Integer.parseInt(extract.get(i).get(0).trim());
-						if(expectedSid==sid){
-							innersid=true;
-						}
+					if(service.storeExists(expectedSid)){
+						innersid=true;
 					}
 					if(!innersid){
 						System.out.println("\tThat is not an acceptable StoreID");
@@ -859,9 +1249,7 @@ public class Retail {
 
 		updating = "\t1. Add Product \n\t 2. Delete Product \n\t 3. Edit an existing product: \n\t Enter 1 or 2 or 3: ";
                 System.out.print(updating);
-		String productCheck = "select p.storeID,p.productName, p.numberOfUnits, p.pricePerUnit from product p, store s where p.storeid = s.storeid and s.storeid = '";
-                productCheck = productCheck + expectedSid + "'";
-                List<List<String>> productlists = esql.executeQueryAndReturnResult(productCheck);
+                StoreCatalog productlists = service.catalog(expectedSid);
 		while(!innernumUp){
 			try{
 				numUp=Integer.parseInt(in.readLine().trim());
@@ -902,9 +1290,8 @@ public class Retail {
                                         System.out.println("\tThat is not an Integer, Try Again");
                                 }
                         }
-			String Add=String.format("insert into product (storeID, productName, numberOfUnits,pricePerUnit) VALUES (%d,'%s',%d,%d);",expectedSid, pname,numU,price);
-			esql.executeUpdate(Add);
-			esql.executeQueryAndPrintResult(productCheck);
+			service.addProduct(session, expectedSid, pname, numU, price);
+			printTable(service.storeProducts(session, expectedSid));
 			//add new product here
 		}else if (numUp == 2){
 			boolean bpname=false;
@@ -912,37 +1299,30 @@ public class Retail {
 			while(!bpname){
 				System.out.println("\tWhat is the Product (name) that you are deleting: ");
 				pname=in.readLine().trim();
-				for(int i=0;i<productlists.size();i++){
-					if(pname.equals(productlists.get(i).get(1).trim())){
-						bpname=true;
-					}
-				}
+				bpname=productlists.contains(pname);
 				if(!bpname){
 					System.out.println("\tThat Product Name does not exist at the store you are trying to delete from. Try Again.");
 				}
 			}
-			String del= "delete from product where storeID='"+expectedSid+"' and productName='"+pname+"'";
-			esql.executeUpdate(del);
-			 esql.executeQueryAndPrintResult(productCheck);	
+			service.deleteProduct(session, expectedSid, pname);
+			printTable(service.storeProducts(session, expectedSid));
 		}
 		
 		else if(numUp == 3){
 			
 			//productlist
 		
-			String productChecks = "select p.storeID,p.productName, p.numberOfUnits, p.pricePerUnit from product p, store s where p.storeid = s.storeid and s.storeid = '";
-                	productChecks = productChecks + expectedSid + "'";
-                	List<List<String>> productlist = esql.executeQueryAndReturnResult(productChecks);
+                	ResultTable productlist = service.storeProducts(session, expectedSid);
 	
 			for(int i = 0; i < productlist.size(); ++i){
 				System.out.print("\tProduct Name: ");
-				System.out.println(productlist.get(i).get(1));
+				System.out.println(productlist.getString(i, 0));
 				
 				System.out.print("\tNumber of units: ");
-				System.out.println(productlist.get(i).get(2));
+				System.out.println(productlist.getString(i, 1));
 				
 				System.out.print("\tPrice per unit: ");
-				System.out.println(productlist.get(i).get(3));
+				System.out.println(productlist.getString(i, 2));
 				System.out.println();
 			}
 			
@@ -950,17 +1330,9 @@ public class Retail {
 			String selection = in.readLine().trim();
 			
 			boolean exists = false;
-			int existsAt = 0;
 			while(!exists){
 				
-			for(int i = 0; i < productlist.size(); ++i){
-			
-				if(productlist.get(i).get(1).trim().equals(selection)){
-					exists = true;
-					existsAt = i;
-				}
-				
-			}
+				exists = productlists.contains(selection);
 				
 				if(!exists){
 				
@@ -1009,15 +1381,9 @@ public class Retail {
 			if(trythis == 1){
 				
 				//updateTo = in.readLine().trim();
-				String updateTime = "update product set " + choice + " = " + "'"+updateTo + "'"+" where storeID = '" + expectedSid + "'"+" and productName = '"+ selection+ "'";
-				esql.executeUpdate(updateTime);
-				String orderUp="update order set "+choice+"="+"'"+updateTo+"'"+"where productName='"+extract.get(existsAt).get(1);
-				String returnResult = "select * from product";
-				esql.executeQueryAndPrintResult(returnResult);
-			
-				java.util.Date date =new java.util.Date();
-				String newOrder = String.format("insert into productUpdates (updatenumber, managerID, storeID, productName, updatedOn) VALUES (DEFAULT, %s, %s, '%s','%s');", globalID, expectedSid, selection, date);
-				esql.executeUpdate(newOrder);   	
+				//the rename is logged in productUpdates under the new name
+				service.renameProduct(session, expectedSid, selection, updateTo);
+				service.forEachProduct(session, new RowPrinter());
 			}
 			
 			else if(trythis == 2 || trythis == 3){
@@ -1036,16 +1402,13 @@ public class Retail {
 					}
 				}
 				
-				String updateTime = "update product set " + choice + " = " + "'"+updateToNum + "'"+" where storeID = '" + expectedSid + "'"+" and productName = '"+ selection+ "'";
-				esql.executeUpdate(updateTime);
-			
-				java.util.Date date =new java.util.Date();
-				String newOrder = String.format("insert into productUpdates (updatenumber, managerID, storeID, productName, updatedOn) VALUES (DEFAULT, %s, %s, '%s','%s');", globalID, expectedSid, selection, date);
+				RetailService.ProductField field = trythis == 2 ? RetailService.ProductField.UNITS : RetailService.ProductField.PRICE;
+				//the update is logged in productUpdates by the service
+				service.updateProduct(session, expectedSid, selection, field, updateToNum);
 
 
 	
-				String returnResult = "select * from product";
-				esql.executeQueryAndPrintResult(returnResult);
+				service.forEachProduct(session, new RowPrinter());
 				
 			}
 			
@@ -1066,45 +1429,46 @@ public class Retail {
 	}
    }
 
-   public static void updateUserAdmin(Retail esql){
+   public static void updateUserAdmin(RetailService service, Session session){
 	try{
-		if(!globalType.equals("admin")){
+		if(!session.is(Session.Role.ADMIN)){
 			throw new Exception("\tInvalid entry, please try again.");
 		}
 		
-	    	String q="select * from users order by userID";
-		List<List<String>>extract=esql.executeQueryAndReturnResult(q);
 		System.out.println("\tUser List\n");
 		boolean uidacc=false;
                  boolean infoacc=false;
 		int expecteduid=0;
 		String expectedpname="";
 		int expectedNum=0;
-		for(int i=0; i<extract.size();i++){
-			System.out.print("\tUserID: ");
-                	System.out.print(extract.get(i).get(0).trim());
-                	System.out.print(", ");
-                
-                	System.out.print("\tName: ");
-                	System.out.print(extract.get(i).get(1).trim());
-                	System.out.print(", ");
-                
-                	System.out.print("\tPassword: ");
-                	System.out.print(extract.get(i).get(2).trim());
-                	System.out.print(", ");
-
-                	System.out.print("\tLatitude: ");
-                	System.out.print(extract.get(i).get(3).trim());
-			System.out.print(", ");
-			
-			System.out.print("\tLongitude: ");
-                	System.out.print(extract.get(i).get(4).trim());
-			System.out.print(", ");
-			
-			System.out.print("\tUser Type: ");
-                	System.out.print(extract.get(i).get(5).trim());
-	                System.out.println();
-		}
+		//streams the listing instead of loading the whole users table
+		service.forEachUser(session, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				System.out.print("\tUserID: ");
+				System.out.print(rs.getString(1).trim());
+				System.out.print(", ");
+
+				System.out.print("\tName: ");
+				System.out.print(rs.getString(2).trim());
+				System.out.print(", ");
+
+				System.out.print("\tPassword: ");
+				System.out.print(rs.getString(3).trim());
+				System.out.print(", ");
+
+				System.out.print("\tLatitude: ");
+				System.out.print(rs.getString(4).trim());
+				System.out.print(", ");
+
+				System.out.print("\tLongitude: ");
+				System.out.print(rs.getString(5).trim());
+				System.out.print(", ");
+
+				System.out.print("\tUser Type: ");
+				System.out.print(rs.getString(6).trim());
+				System.out.println();
+			}
+		});
 	String updating="";
 	int numUp = 0;
 	boolean bnumUp=false;
@@ -1129,16 +1493,8 @@ public class Retail {
 		System.out.print("\tEnter password for User you wish to add: ");
 		String pass=in.readLine().trim();
 		
-		List<List<String>> checker = esql.executeQueryAndReturnResult("select * from users");
-
-		for(int i = 0; i < checker.size(); ++i){
-
-			String temp = checker.get(i).get(1).trim();
-
-			if(temp.equals(uname)){
-				throw new Exception("User with that name already exists");
-			}
-
+		if(service.getUserNames().isTaken(uname)){
+			throw new Exception("User with that name already exists");
 		}
 
 		boolean blat=false;
@@ -1170,9 +1526,8 @@ public class Retail {
 		//admin can remove and add users and products
 		//do we default userid or an we make it any number we want->delete old manager and add new user with that id as manager?
 		String cust="customer";
-		String Add=String.format("insert into users (userID, name, password,latitude,longitude,type) VALUES (DEFAULT,'%s','%s',%d,%d,'%s');",uname, pass,lat,lon,cust);
-		esql.executeUpdate(Add);
-		esql.executeQueryAndPrintResult(q);
+		service.addUser(session, uname, pass, lat, lon, cust);
+		service.forEachUser(session, new RowPrinter());
 		
 	}else if(numUp == 2){
 		System.out.print("\tEnter name of UserID of User you'd like to delete: ");
@@ -1180,21 +1535,18 @@ public class Retail {
 		while(!uidacc){
 			try{
 				uid=Integer.parseInt(in.readLine().trim());
-				for(int i=0; i<extract.size();i++){
-					if(uid==Integer.parseInt(extract.get(i).get(0).trim())){
-						uidacc=true;	
-					}else{
-						System.out.print("Please Enter an existing UserID: ");	
-					}
+				if(service.userExists(uid)){
+					uidacc=true;	
+				}else{
+					System.out.print("Please Enter an existing UserID: ");	
 				}
 			}catch(NumberFormatException e){
 				System.out.print("\tPlease Enter a Number for UserID: ");	
 			}
 				
 		}
-		String del= "delete from users where UserID='"+uid+"'";
-		esql.executeUpdate(del);
-		esql.executeQueryAndPrintResult(q);
+		service.deleteUser(session, uid);
+		service.forEachUser(session, new RowPrinter());
 					   
 	}
 	else if(numUp == 3){
@@ -1207,13 +1559,12 @@ public class Retail {
 			System.out.println("\tEnter the User ID you wish to make edits to: ");
 			input = in.readLine().trim();
 			
-			for(int i = 0; i < extract.size(); ++i){
-				
-				String temp = extract.get(i).get(0).trim();
-				if(temp.equals(input)){
+			try{
+				if(service.userExists(Integer.parseInt(input))){
 					dec = true;
 				}
-	
+			}catch(NumberFormatException e){
+				dec = false;
 			}
 
 			if(!dec){
@@ -1255,10 +1606,9 @@ public class Retail {
 			System.out.println("\tWhat would you like to update the password to:" );
 			updateIt = in.readLine().trim();
 
-			String qbody = "update users set password = '" + updateIt +"' where userid = " + input;
-			esql.executeUpdate(qbody);
+			service.updateUser(session, Integer.parseInt(input), RetailService.UserField.PASSWORD, updateIt);
 
-			esql.executeQueryAndPrintResult("select * from users"); 
+			service.forEachUser(session, new RowPrinter());
 
 		}
 		
@@ -1287,10 +1637,10 @@ public class Retail {
 			}
 
 
-			String q2 = "update users set " + field + " = " + updateNum + "where userid = " + input;
-			esql.executeUpdate(q2);
+			RetailService.UserField column = choice == 2 ? RetailService.UserField.LATITUDE : RetailService.UserField.LONGITUDE;
+			service.updateUser(session, Integer.parseInt(input), column, String.valueOf(updateNum));
 		
-			esql.executeQueryAndPrintResult("select * from users");
+			service.forEachUser(session, new RowPrinter());
 
 		
 		}
@@ -1307,33 +1657,30 @@ public class Retail {
 	}
    }
 
-   public static void updateProduct(Retail esql){
+   public static void updateProduct(RetailService service, Session session){
 	try{
-		if(!globalType.equals("manager")){
+		if(!session.is(Session.Role.MANAGER)){
 
 			throw new Exception("\tInvalid Entry, please try again.");
 		}		
 
-		String q="select p.storeID, p.productName, p.numberOfUnits,p.pricePerUnit from product p, store s where s.managerID=";
-		String q1=" and s.storeId=p.storeID order by p.storeID";
-		q=q+"'"+globalID+"'"+q1;
-		List<List<String>>extract=esql.executeQueryAndReturnResult(q);
+		ResultTable extract=service.managedProducts(session);
 		System.out.println("\tProduct List\n");
 		for(int i=0; i<extract.size();i++){
                         System.out.print("\tStoreID: ");
-                        System.out.print(extract.get(i).get(0));
+                        System.out.print(extract.getString(i, 0));
                         System.out.print(", ");
 
                         System.out.print("\tProduct Name: ");
-                        System.out.print(extract.get(i).get(1));
+                        System.out.print(extract.getString(i, 1));
                         System.out.print(", ");
 
                         System.out.print("\tNumber of Units: ");
-                        System.out.print(extract.get(i).get(2));
+                        System.out.print(extract.getString(i, 2));
                         System.out.print(", ");
 
                         System.out.print("\tPrice Per Unit: ");
-                        System.out.print(extract.get(i).get(3));
+                        System.out.print(extract.getString(i, 3));
                         System.out.println();
                 }
 
@@ -1349,7 +1696,7 @@ public class Retail {
 
 			for(int i = 0; i < extract.size(); ++i){
 
-				String temp = extract.get(i).get(0).trim();
+				String temp = extract.getString(i, 0).trim();
 
 				if(temp.equals(store_change)){
 					store_exists = true;
@@ -1367,30 +1714,26 @@ public class Retail {
 		int sid=Integer.parseInt(store_change);
 		System.out.print("\tProduct Name of Product you wish to update: ");
                 String pname=in.readLine().trim();
+		StoreCatalog catalog = service.catalog(sid);
 		boolean pacc=false;
 		while(!pacc){
-			for(int i=0;i<extract.size();i++){
-				String expectedPname =extract.get(i).get(1).trim();	
-				if(expectedPname.equals(pname)){
-					pacc=true;
-				}	
-			}
+			pacc=catalog.contains(pname);
 			if(!pacc){
 			for(int i=0; i<extract.size();i++){
                         System.out.print("\tStoreID: ");
-                        System.out.print(extract.get(i).get(0));
+                        System.out.print(extract.getString(i, 0));
                         System.out.print(", ");
 
                         System.out.print("\tProduct Name: ");
-                        System.out.print(extract.get(i).get(1));
+                        System.out.print(extract.getString(i, 1));
                         System.out.print(", ");
 
                         System.out.print("\tNumber of Units: ");
-                        System.out.print(extract.get(i).get(2));
+                        System.out.print(extract.getString(i, 2));
                         System.out.print(", ");
 
                         System.out.print("\tPrice Per Unit: ");
-                        System.out.print(extract.get(i).get(3));
+                        System.out.print(extract.getString(i, 3));
                         System.out.println();
                 }
 			System.out.print("\tProduct does not exist at your store. Enter an existing Product Name at your Store: ");
@@ -1415,11 +1758,11 @@ public class Retail {
 				System.out.print("\tPlease Enter 1 or 2 to Update Number of Units or Price: ");
 			}
 		}
-		String param = "";
+		RetailService.ProductField param;
 		if(nu == 1)
-			param = "numberOfUnits";
+			param = RetailService.ProductField.UNITS;
 		else 
-			param="pricePerUnit";
+			param = RetailService.ProductField.PRICE;
 				   
 		System.out.print("\tWhat would you like to change this field to?: ");
 		
@@ -1440,18 +1783,12 @@ public class Retail {
 				System.out.print("\tPlease Enter an integer: ");
 			}
 		}
-		String updateTime = "update product set " + param + " = " + "'"+toUpdate + "'"+" where storeID = '" + sid + "'"+" and productName = '"+ pname+ "'";
-		esql.executeUpdate(updateTime);	
-		System.out.println("first update to products");
-				   
-		Timestamp timeat = new Timestamp(System.currentTimeMillis());
-		String mytime = timeat.toString();
-		java.util.Date date =new java.util.Date();
-
-
-		String newOrder = String.format("insert into productUpdates (updatenumber, managerID, storeID, productName, updatedOn) VALUES (DEFAULT, %s, %s, '%s','%s');", globalID, sid, pname, date);
-		esql.executeUpdate(newOrder);   
-		System.out.println("second update to productUpdate");
+		//the update is only applied to the manager's own stores and is logged in productUpdates
+		if(service.updateProduct(session, sid, pname, param, toUpdate) > 0){
+			System.out.println("\tProduct updated.");
+		}else{
+			System.out.println("\tProduct was not updated.");
+		}
 
 		
 				   
@@ -1459,39 +1796,33 @@ public class Retail {
 		System.err.println (e.getMessage());
 	}
    }
-   public static void viewRecentUpdates(Retail esql) {
+   public static void viewRecentUpdates(RetailService service, Session session) {
 	try{
 
-		if(!globalType.equals("manager")){
+		if(!session.is(Session.Role.MANAGER)){
 			throw new Exception("Invalid entry, please try again.");
 		}
 
-		String hold="select s.storeID from user u, store s where s.managerID= "+globalID;
-                List<List<String>>extract=esql.executeQueryAndReturnResult(hold);
-		for(int i=0; i<extract.size();i++){
-		String st=extract.get(i).get(0).trim();
-		String q = "select pu.updateNumber, pu.managerID, pu.storeID, pu.productName, pu.updatedOn from productupdates pu, store s, orders o,users u where s.managerid = '";
-		String q2 = "' and '";
-		String q4 ="'= s.storeid and pu.managerid=u.userID group by pu.updateNumber order by count(pu.updatedOn) desc limit 5";
-		String q3 = q + globalID + q2+st+q4;
-		esql.executeQueryAndPrintResult(q3);
-		}
+		printTable(service.recentUpdates(session));
 
 
 	}catch(Exception e){
 		System.err.println (e.getMessage());
 	}
    }
-   public static void viewPopularProducts(Retail esql) {
+   public static void viewPopularProducts(RetailService service, Session session) {
 	try{
+		
+		if(!session.is(Session.Role.MANAGER)){
+			throw new Exception("\tInvalid entry, please try again.");
+		}
 	
 		//listlist<string> extract = select count(productName) from products group by productname
 		
-		String q = "select o.productname, count(o.productname) from store s, orders o where s.managerid = '";
-		String q2 = "' and o.storeid = s.storeid group by productname order by count(o.productname) desc limit 5";
-		String q3 = q + globalID + q2;
-
-		esql.executeQueryAndPrintResult(q3);	
+		ResultTable popular = service.popularProducts(session);
+		for(int i = 0; i < popular.size(); ++i){
+			System.out.println("\t" + popular.getString(i, 0) + "\t" + popular.getLong(i, 1));
+		}
 	
 		
 
@@ -1500,20 +1831,19 @@ public class Retail {
 		System.err.println(e.getMessage());
 	}
    }
-   public static void viewPopularCustomers(Retail esql) {
+   public static void viewPopularCustomers(RetailService service, Session session) {
    	try{
 		
-		if(!globalType.equals("manager")){
+		if(!session.is(Session.Role.MANAGER)){
 			throw new Exception("\tInvalid entry, please try again.");
 		}
 	
 		//listlist<string> extract = select count(customerID) from products group by productname
 		
-		String q = "select u.name, count(o.customerID) from store s, orders o,users u where s.managerid = '";
-		String q2 = "' and o.storeid = s.storeid and o.customerID=u.userID group by u.name order by count(o.customerID) desc limit 5";
-		String q3 = q + globalID + q2;
-
-		esql.executeQueryAndPrintResult(q3);	
+		ResultTable popular = service.popularCustomers(session);
+		for(int i = 0; i < popular.size(); ++i){
+			System.out.println("\t" + popular.getString(i, 0) + "\t" + popular.getLong(i, 1));
+		}
 	
 		
 
@@ -1522,32 +1852,30 @@ public class Retail {
 		System.err.println(e.getMessage());
 	}
    }
-   public static void placeProductSupplyRequests(Retail esql) {
+   public static void placeProductSupplyRequests(RetailService service, Session session) {
    	
 	try{	
-		if(!globalType.equals("manager")){
+		if(!session.is(Session.Role.MANAGER)){
 			throw new Exception("\tInvalid entry, please try again.");
 		}
 		
-		String hold="select p.storeID, p.productName, p.numberOfUnits, p.pricePerUnit from user u, store s, product p where s.managerID= "+globalID;
-		hold=hold+"and p.storeID=s.storeID order by p.storeID";
-        	List<List<String>>extract=esql.executeQueryAndReturnResult(hold);
+        	ResultTable extract=service.managedProducts(session);
 		for(int i = 0; i < extract.size(); ++i){
 
                 System.out.print("\tStoreID: ");
-                System.out.print(extract.get(i).get(0));
+                System.out.print(extract.getString(i, 0));
                 System.out.println();
 		
 		System.out.print("\tProduct Name: ");
-                System.out.print(extract.get(i).get(1));
+                System.out.print(extract.getString(i, 1));
                 System.out.println();
 
                 System.out.print("\tNumber of available units: ");
-                System.out.print(extract.get(i).get(2));
+                System.out.print(extract.getString(i, 2));
                 System.out.println();
 
                 System.out.print("\tPrice per unit: ");
-                System.out.print(extract.get(i).get(3));
+                System.out.print(extract.getString(i, 3));
                 System.out.println();
                 System.out.println();
 
@@ -1558,7 +1886,7 @@ public class Retail {
 		boolean sidacc=false;
 		while(!sidacc){
 			for(int i=0;i<extract.size();i++){
-				if(sid.equals(extract.get(i).get(0).trim())){
+				if(sid.equals(extract.getString(i, 0).trim())){
 					sidacc=true;	
 				}
 			}
@@ -1568,25 +1896,21 @@ public class Retail {
 				sid = in.readLine().trim();
 			}
 		}	
-		String query = "select productName, numberOfUnits, pricePerUnit ";
-		String q1 = "from Product where storeID = ";
-	
-		query = query + q1 + sid;
-	
-		extract = esql.executeQueryAndReturnResult(query);
+		StoreCatalog catalog = service.catalog(Integer.parseInt(sid));
+		ResultTable products = catalog.getProducts();
 
-		for(int i = 0; i < extract.size(); ++i){
+		for(int i = 0; i < products.size(); ++i){
 
 		System.out.print("\tProduct name: ");
-		System.out.print(extract.get(i).get(0));
+		System.out.print(products.getString(i, 0));
 		System.out.println();	
 
 		System.out.print("\tNumber of available units: ");
-		System.out.print(extract.get(i).get(1));
+		System.out.print(products.getInt(i, 1));
 		System.out.println();
 
 		System.out.print("\tPrice per unit: ");
-		System.out.print(extract.get(i).get(2));
+		System.out.print(products.getDouble(i, 2));
 		System.out.println();
 		System.out.println();
 
@@ -1595,14 +1919,8 @@ public class Retail {
 		System.out.print("\tEnter Product Name you would like to Order Units for: ");
 		String pname = in.readLine().trim();
 		boolean pacc=false;
-		int ogunits=0;
 		while(!pacc){
-			for(int i=0;i<extract.size();i++){
-				if(pname.equals(extract.get(i).get(0).trim())){
-					ogunits=Integer.parseInt(extract.get(i).get(1).trim());
-					pacc=true;	
-				}
-			}
+			pacc=catalog.contains(pname);
 			if(!pacc){
 				System.out.print("\tProduct Does Not Exist. Enter Product Name to Order: ");
 				pname = in.readLine().trim();
@@ -1610,24 +1928,23 @@ public class Retail {
 		}	
 		System.out.println();
 		System.out.println("\tWarehouse List\n");
-		String compare= "select * from warehouse w";
-		extract=esql.executeQueryAndReturnResult(compare);
+		extract=service.warehouses(session);
 		for(int i = 0; i < extract.size(); ++i){
 
 		System.out.print("\tWarehouseID: ");
-		System.out.print(extract.get(i).get(0));
+		System.out.print(extract.getString(i, 0));
 		System.out.println();	
 
 		System.out.print("\tarea: ");
-		System.out.print(extract.get(i).get(1));
+		System.out.print(extract.getString(i, 1));
 		System.out.println();
 
 		System.out.print("\tLatitude: ");
-		System.out.print(extract.get(i).get(2));
+		System.out.print(extract.getString(i, 2));
 		System.out.println();
 			
 		System.out.print("\tLongitude: ");
-		System.out.print(extract.get(i).get(3));
+		System.out.print(extract.getString(i, 3));
 		System.out.println();
 		System.out.println();
 
@@ -1636,10 +1953,10 @@ public class Retail {
 		String ware = in.readLine().trim();
 		boolean wareacc=false;
 		while(!wareacc){
-			for(int i=0;i<extract.size();i++){
-				if(ware.equals(extract.get(i).get(0).trim())){
-					wareacc=true;	
-				}
+			try{
+				wareacc=service.warehouseExists(Integer.parseInt(ware));
+			}catch(NumberFormatException e){
+				wareacc=false;
 			}
 			if(!wareacc){
 				System.out.print("\tWarehouse Does not exist. Enter Warehouse ID to Order Product from: ");
@@ -1658,18 +1975,12 @@ public class Retail {
 			uacc=false;
 			}
 		}
-		int req=units;
-		units=units+ogunits;
-		String updateTime = "update product set  numberOfUnits = " + units +" where storeID = '" + sid + "'"+" and productName = '"+ pname+ "'";
-		esql.executeUpdate(updateTime);	
-		System.out.println("first update to products");
-		
-		String newOrder = String.format("insert into productSupplyRequests (requestNumber, managerID, warehouseID, storeID, productName, unitsRequested) VALUES (DEFAULT, %s, %s, '%s','%s', %d);", globalID, ware, sid, pname, req);
-		esql.executeUpdate(newOrder);   
-		System.out.println("second update to productSupplyRequests");
-		
-		String work="select * from productSupplyRequests";
-		esql.executeQueryAndPrintResult(work);		
+		int req=service.requestSupply(session, Integer.parseInt(sid), pname, Integer.parseInt(ware), units);
+		if(req < 0){
+			System.out.println("\tSupply request was not placed.");
+			return;
+		}
+		System.out.println("\tSupply request " + req + " placed.");
 		
 	}catch(Exception e){
 		System.err.println (e.getMessage ());
@@ -0,0 +1,445 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves RetailService as JSON over HTTP, using the JDK's built-in
+ * server.  Every request runs on its own session thread (virtual where
+ * the JDK has them).  Connections are kept alive between requests.
+ *
+ *    POST /login                    {"name", "password"} -> {"token", ...}
+ *    POST /logout
+ *    GET  /stores                   stores near the user
+ *    GET  /products?storeID=        products of a store
+ *    POST /orders                   {"storeID", "productName", "units"}
+ *    GET  /orders/history?beforeTime=&beforeNumber=&limit=
+ *                                   the user's orders, newest first; pass
+ *                                   orderTime and orderNumber of the last
+ *                                   order seen for the next page
+ *    POST /products/update          {"storeID", "productName",
+ *                                    "field": "units"|"price", "value"}
+ *    POST /supply-requests          {"storeID", "productName",
+ *                                    "warehouseID", "units"}
+ *    GET  /reports/popular-products
+ *    GET  /reports/popular-customers
+ *
+ * All but /login need "Authorization: Bearer <token>".  Errors come back
+ * as {"error": message} with 400, 401, 403, 404, 405, 409, 413 or 503,
+ * the latter also when more than retail.http.maxConcurrent requests are
+ * already running.  Any other failure is a 500 with a generic message;
+ * its details go to standard error only.
+ * Settings come from system properties:
+ *
+ *    retail.http.maxConcurrent     requests served at once (256)
+ *    retail.http.queueTimeoutMs    wait for a free slot before 503 (100)
+ *    retail.http.requestTimeoutSec limit for reading a request and for
+ *                                  writing a response (30)
+ *    retail.http.idleTimeoutSec    keep-alive idle timeout (30)
+ *    retail.http.sessionTimeoutSec idle session lifetime (1800)
+ *
+ */
+public class RetailHttpServer {
+
+   private static final int MAX_BODY = 64 * 1024;
+
+   private final RetailService service;
+   private final HttpServer server;
+   private final ExecutorService executor;
+   private final Semaphore slots;
+   private final long queueTimeoutMs;
+   private final long sessionTimeoutMs;
+   private final ConcurrentHashMap<String, Login> logins = new ConcurrentHashMap<String, Login>();
+   private final SecureRandom random = new SecureRandom();
+   private Timer expiry = null;
+
+   // a logged in session and when its token was last used.
+   static class Login {
+      final Session session;
+      volatile long lastUsed;
+
+      Login(Session session) {
+         this.session = session;
+         this.lastUsed = System.currentTimeMillis();
+      }
+   }//end Login
+
+   // a request error with its HTTP status.
+   static class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   /**
+    * One endpoint: checks the method and the session, then produces the
+    * object written back as JSON.
+    */
+   abstract class Endpoint implements HttpHandler {
+      private final String method;
+      private final boolean needsSession;
+
+      Endpoint(String method, boolean needsSession) {
+         this.method = method;
+         this.needsSession = needsSession;
+      }
+
+      abstract Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception;
+
+      public void handle(HttpExchange exchange) throws IOException {
+         try{
+            if (!RetailHttpServer.this.slots.tryAcquire(RetailHttpServer.this.queueTimeoutMs, TimeUnit.MILLISECONDS)){
+               exchange.getResponseHeaders().set("Retry-After", "1");
+               send(exchange, 503, error("Server busy"));
+               return;
+            }
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("Server busy"));
+            return;
+         }
+         try{
+            // contexts match by prefix; only the exact path is served.
+            if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath()))
+               throw new HttpError(404, "No such resource");
+            if (!exchange.getRequestMethod().equalsIgnoreCase(this.method))
+               throw new HttpError(405, "Use " + this.method);
+            Session session = this.needsSession ? authorize(exchange) : null;
+            Map<String, Object> body = this.method.equals("POST") ? readBody(exchange) : query(exchange);
+            send(exchange, 200, handle(exchange, session, body));
+         }catch (HttpError e){
+            send(exchange, e.status, error(e.getMessage()));
+         }catch (SQLException e){
+            int status = statusOf(e);
+            if (status == 500)
+               internalError(exchange, e);
+            else
+               send(exchange, status, error(e.getMessage()));
+         }catch (IllegalArgumentException e){
+            send(exchange, 400, error(e.getMessage()));
+         }catch (Exception e){
+            internalError(exchange, e);
+         }finally{
+            RetailHttpServer.this.slots.release();
+         }
+      }
+   }//end Endpoint
+
+   /**
+    * Binds the server; call start() to begin serving.
+    *
+    * @param service the operations to serve
+    * @param port the TCP port to listen on
+    */
+   public RetailHttpServer(RetailService service, int port) throws IOException {
+      this.service = service;
+      this.slots = new Semaphore(Integer.getInteger("retail.http.maxConcurrent", 256));
+      this.queueTimeoutMs = Long.getLong("retail.http.queueTimeoutMs", 100L);
+      this.sessionTimeoutMs = Long.getLong("retail.http.sessionTimeoutSec", 1800L) * 1000L;
+
+      // read once by the JDK server when its class is loaded.
+      long requestTimeout = Long.getLong("retail.http.requestTimeoutSec", 30L);
+      defaultProperty("sun.net.httpserver.maxReqTime", String.valueOf(requestTimeout));
+      defaultProperty("sun.net.httpserver.maxRspTime", String.valueOf(requestTimeout));
+      defaultProperty("sun.net.httpserver.idleInterval",
+         String.valueOf(Long.getLong("retail.http.idleTimeoutSec", 30L)));
+
+      this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+      this.executor = SessionThreads.newExecutor();
+      this.server.setExecutor(this.executor);
+      register();
+   }//end RetailHttpServer
+
+   public void start() {
+      this.server.start();
+      synchronized (this){
+         if (this.expiry == null && this.sessionTimeoutMs > 0){
+            // lookups reject stale tokens themselves; this only frees them.
+            long period = Math.max(1000L, Math.min(this.sessionTimeoutMs, 60000L));
+            this.expiry = new Timer("session-expiry", true);
+            this.expiry.schedule(new TimerTask() {
+               public void run() { expireLogins(); }
+            }, period, period);
+         }
+      }
+   }//end start
+
+   /**
+    * Stops accepting requests and gives running ones up to delaySec
+    * seconds to finish.
+    */
+   public void stop(int delaySec) {
+      this.server.stop(delaySec);
+      this.executor.shutdown();
+      synchronized (this){
+         if (this.expiry != null){
+            this.expiry.cancel();
+            this.expiry = null;
+         }
+      }
+   }//end stop
+
+   public int getPort() {
+      return this.server.getAddress().getPort();
+   }//end getPort
+
+   private void register() {
+      this.server.createContext("/", new Endpoint("GET", false) {
+         Object handle(HttpExchange exchange, Session none, Map<String, Object> body) throws Exception {
+            throw new HttpError(404, "No such resource");
+         }
+      });
+      this.server.createContext("/login", new Endpoint("POST", false) {
+         Object handle(HttpExchange exchange, Session none, Map<String, Object> body) throws Exception {
+            Session session = RetailHttpServer.this.service.login(text(body, "name"), text(body, "password"));
+            if (session == null)
+               throw new HttpError(401, "Wrong name or password");
+            String token = newToken();
+            RetailHttpServer.this.logins.put(token, new Login(session));
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("token", token);
+            result.put("userID", session.getUserID());
+            result.put("name", session.getName());
+            result.put("role", session.getRole().name().toLowerCase());
+            return result;
+         }
+      });
+      this.server.createContext("/logout", new Endpoint("POST", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) {
+            RetailHttpServer.this.logins.remove(token(exchange));
+            return ok();
+         }
+      });
+      this.server.createContext("/stores", new Endpoint("GET", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            return RetailHttpServer.this.service.nearbyStores(session);
+         }
+      });
+      this.server.createContext("/products", new Endpoint("GET", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            return RetailHttpServer.this.service.storeProducts(session, integer(body, "storeID"));
+         }
+      });
+      this.server.createContext("/orders", new Endpoint("POST", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            int order = RetailHttpServer.this.service.placeOrder(session,
+               integer(body, "storeID"), text(body, "productName"), integer(body, "units"));
+            if (order < 0)
+               throw new HttpError(409, "Not enough units available at a store near you");
+            return Collections.singletonMap("orderNumber", order);
+         }
+      });
+      this.server.createContext("/orders/history", new Endpoint("GET", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            String beforeTime = body.containsKey("beforeTime") ? text(body, "beforeTime") : null;
+            int beforeNumber = beforeTime == null ? 0 : integer(body, "beforeNumber");
+            int limit = body.containsKey("limit") ? integer(body, "limit") : 20;
+            return RetailHttpServer.this.service.orderHistory(session, beforeTime, beforeNumber, limit);
+         }
+      });
+      this.server.createContext("/products/update", new Endpoint("POST", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            String field = text(body, "field");
+            RetailService.ProductField column;
+            if (field.equalsIgnoreCase("units"))
+               column = RetailService.ProductField.UNITS;
+            else if (field.equalsIgnoreCase("price"))
+               column = RetailService.ProductField.PRICE;
+            else
+               throw new HttpError(400, "field must be units or price");
+            if (RetailHttpServer.this.service.updateProduct(session, integer(body, "storeID"),
+                  text(body, "productName"), column, number(body, "value")) == 0)
+               throw new HttpError(404, "No such product at a store you manage");
+            return ok();
+         }
+      });
+      this.server.createContext("/supply-requests", new Endpoint("POST", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            int request = RetailHttpServer.this.service.requestSupply(session, integer(body, "storeID"),
+               text(body, "productName"), integer(body, "warehouseID"), integer(body, "units"));
+            if (request < 0)
+               throw new HttpError(404, "No such product at a store you manage");
+            return Collections.singletonMap("requestNumber", request);
+         }
+      });
+      this.server.createContext("/reports/popular-products", new Endpoint("GET", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            return RetailHttpServer.this.service.popularProducts(session);
+         }
+      });
+      this.server.createContext("/reports/popular-customers", new Endpoint("GET", true) {
+         Object handle(HttpExchange exchange, Session session, Map<String, Object> body) throws Exception {
+            return RetailHttpServer.this.service.popularCustomers(session);
+         }
+      });
+   }//end register
+
+   private Session authorize(HttpExchange exchange) throws HttpError {
+      String token = token(exchange);
+      Login login = token == null ? null : this.logins.get(token);
+      long now = System.currentTimeMillis();
+      if (login == null || now - login.lastUsed > this.sessionTimeoutMs){
+         if (login != null)
+            this.logins.remove(token);
+         throw new HttpError(401, "Log in first");
+      }
+      login.lastUsed = now;
+      return login.session;
+   }//end authorize
+
+   private static String token(HttpExchange exchange) {
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7))
+         return null;
+      return header.substring(7).trim();
+   }//end token
+
+   private String newToken() {
+      byte[] bytes = new byte[16];
+      this.random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(32);
+      for (byte b : bytes)
+         token.append(String.format("%02x", b & 0xff));
+      return token.toString();
+   }//end newToken
+
+   // drops sessions idle for longer than the session timeout; runs on the
+   // session-expiry timer, never on a request thread.
+   private void expireLogins() {
+      long now = System.currentTimeMillis();
+      for (Iterator<Login> it = this.logins.values().iterator(); it.hasNext(); ){
+         if (now - it.next().lastUsed > this.sessionTimeoutMs)
+            it.remove();
+      }//end for
+   }//end expireLogins
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, Object> readBody(HttpExchange exchange) throws IOException, HttpError {
+      InputStream in = exchange.getRequestBody();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0){
+         bytes.write(buffer, 0, n);
+         if (bytes.size() > MAX_BODY)
+            throw new HttpError(413, "Request body too large");
+      }//end while
+      if (bytes.size() == 0)
+         return new HashMap<String, Object>();
+      Object body = Json.parse(bytes.toString("UTF-8"));
+      if (!(body instanceof Map))
+         throw new HttpError(400, "Expected a JSON object");
+      return (Map<String, Object>) body;
+   }//end readBody
+
+   private static Map<String, Object> query(HttpExchange exchange) throws IOException {
+      Map<String, Object> params = new HashMap<String, Object>();
+      String query = exchange.getRequestURI().getRawQuery();
+      if (query == null)
+         return params;
+      for (String pair : query.split("&")){
+         int eq = pair.indexOf('=');
+         if (eq > 0)
+            params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+               URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }//end for
+      return params;
+   }//end query
+
+   private static String text(Map<String, Object> body, String name) throws HttpError {
+      Object v = body.get(name);
+      if (v == null)
+         throw new HttpError(400, "Missing " + name);
+      return v.toString().trim();
+   }//end text
+
+   private static double number(Map<String, Object> body, String name) throws HttpError {
+      Object v = body.get(name);
+      if (v instanceof Number)
+         return ((Number) v).doubleValue();
+      try{
+         return Double.parseDouble(text(body, name));
+      }catch (NumberFormatException e){
+         throw new HttpError(400, name + " must be a number");
+      }
+   }//end number
+
+   private static int integer(Map<String, Object> body, String name) throws HttpError {
+      double d = number(body, name);
+      if (d != Math.rint(d) || Math.abs(d) > Integer.MAX_VALUE)
+         throw new HttpError(400, name + " must be an integer");
+      return (int) d;
+   }//end integer
+
+   private static Map<String, Object> ok() {
+      return Collections.<String, Object>singletonMap("ok", Boolean.TRUE);
+   }//end ok
+
+   private static Map<String, Object> error(String message) {
+      return Collections.<String, Object>singletonMap("error", message);
+   }//end error
+
+   // the status of an error the service raised itself, 500 for any other.
+   static int statusOf(SQLException e) {
+      String state = e.getSQLState();
+      if (RetailService.NOT_PERMITTED.equals(state))
+         return 403;
+      if (RetailService.INVALID_ARGUMENT.equals(state))
+         return 400;
+      if (RetailService.DUPLICATE.equals(state))
+         return 409;
+      if (RetailService.UNAVAILABLE.equals(state))
+         return 503;
+      return 500;
+   }//end statusOf
+
+   // the details stay in the server's log; the client learns nothing of them.
+   private static void internalError(HttpExchange exchange, Exception e) throws IOException {
+      System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " failed: " + e);
+      send(exchange, 500, error("Internal error"));
+   }//end internalError
+
+   private static void send(HttpExchange exchange, int status, Object value) throws IOException {
+      byte[] bytes = Json.write(value).getBytes("UTF-8");
+      Headers headers = exchange.getResponseHeaders();
+      headers.set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream out = exchange.getResponseBody();
+      try{
+         out.write(bytes);
+      }finally{
+         out.close();
+      }
+   }//end send
+
+   private static void defaultProperty(String name, String value) {
+      if (System.getProperty(name) == null)
+         System.setProperty(name, value);
+   }//end defaultProperty
+
+}//end RetailHttpServer
@@ -0,0 +1,612 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The operations of the retail system, independent of any user interface.
+ * Every call takes the caller's Session and its request parameters
+ * explicitly and returns its result; nothing is read from the console and
+ * no per-user state is kept here.  The only shared state (the connection
+ * pool and the user name registry) is thread-safe, so one instance serves
+ * any number of concurrent sessions.
+ *
+ * Role violations are reported as SQLException with SQLState 42501
+ * (insufficient_privilege), bad arguments with 22023
+ * (invalid_parameter_value), taken user names with 23505 (unique_violation)
+ * and work to retry later with 57P03 (cannot_connect_now).  Errors from
+ * the database carry no SQLState, as the driver sets none.
+ *
+ */
+public class RetailService {
+
+   // SQLStates of the errors raised by the service itself.
+   public static final String NOT_PERMITTED = "42501";
+   public static final String INVALID_ARGUMENT = "22023";
+   public static final String DUPLICATE = "23505";
+   public static final String UNAVAILABLE = "57P03";
+
+   // customers see and order from stores within this distance.
+   public static final double NEARBY_RADIUS = 30;
+
+   public enum ProductField {
+      UNITS("numberOfUnits"), PRICE("pricePerUnit");
+
+      final String column;
+
+      ProductField(String column) {
+         this.column = column;
+      }
+   }//end ProductField
+
+   public enum UserField {
+      PASSWORD("password"), LATITUDE("latitude"), LONGITUDE("longitude");
+
+      final String column;
+
+      UserField(String column) {
+         this.column = column;
+      }
+   }//end UserField
+
+   static final String LOGIN =
+      "SELECT userID, latitude, longitude, type FROM Users WHERE name = ? AND password = ?";
+   // returns no row if the name is taken, see users_name_key.
+   static final String INSERT_USER =
+      "INSERT INTO Users (name, password, latitude, longitude, type) VALUES (?, ?, ?, ?, ?) "
+      + "ON CONFLICT (name) DO NOTHING RETURNING userID";
+   static final String DELETE_USER =
+      "DELETE FROM Users WHERE userID = ? RETURNING name";
+   static final String USER_EXISTS =
+      "SELECT userID FROM Users WHERE userID = ?";
+   static final String USER_NAMES =
+      "SELECT name FROM Users";
+   static final String ALL_USERS =
+      "SELECT * FROM Users ORDER BY userID";
+
+   // the bounding box lets the (latitude, longitude) index narrow the scan.
+   static final String NEARBY_STORES = "SELECT storeID, name FROM ("
+      + "SELECT storeID, name, sqrt((latitude - cast(? as numeric))^2 + (longitude - cast(? as numeric))^2) AS distance "
+      + "FROM Store "
+      + "WHERE latitude > cast(? as numeric) AND latitude < cast(? as numeric) "
+      + "AND longitude > cast(? as numeric) AND longitude < cast(? as numeric)) s "
+      + "WHERE distance < ? ORDER BY distance";
+
+   // current stock is read from ProductStock, see sql/src/create_inventory.sql.
+   static final String ALL_PRODUCTS =
+      "SELECT * FROM ProductStock ORDER BY storeID";
+   static final String MANAGED_PRODUCTS =
+      "SELECT p.storeID, p.productName, p.numberOfUnits, p.pricePerUnit FROM ProductStock p, Store s "
+      + "WHERE s.managerID = ? AND s.storeID = p.storeID ORDER BY p.storeID";
+   static final String INSERT_PRODUCT =
+      "INSERT INTO Product (storeID, productName, numberOfUnits, pricePerUnit) VALUES (?, ?, ?, ?)";
+   // stock changes go through the ledger; set_stock returns false if the
+   // product does not exist.
+   static final String SET_STOCK =
+      "SELECT set_stock(?, cast(? as char(30)), ?, 'update')";
+   // the same, only if the store is the manager's.
+   static final String SET_MANAGED_STOCK =
+      "SELECT CASE WHEN EXISTS (SELECT 1 FROM Store WHERE storeID = ? AND managerID = ?) "
+      + "THEN set_stock(?, cast(? as char(30)), ?, 'update') ELSE false END";
+   static final String DELETE_PRODUCT =
+      "DELETE FROM Product WHERE storeID = ? AND productName = cast(? as char(30))";
+   static final String RENAME_PRODUCT =
+      "UPDATE Product SET productName = ? WHERE storeID = ? AND productName = cast(? as char(30))";
+
+   /*
+    * The stock check, the ledger entry and the insert are one statement;
+    * take_stock serializes buyers of the same product, so they can never
+    * oversell.  The store must also be within NEARBY_RADIUS of the
+    * customer.
+    */
+   static final String PLACE_ORDER = "WITH store AS ("
+      + "SELECT storeID FROM Store WHERE storeID = ? "
+      + "AND (latitude - cast(? as numeric))^2 + (longitude - cast(? as numeric))^2 < cast(? as numeric)), "
+      + "wanted AS (SELECT storeID, cast(? as char(30)) AS productName, cast(? as integer) AS units FROM store) "
+      + "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) "
+      + "SELECT ?, storeID, productName, units, now() FROM wanted "
+      + "WHERE take_stock(storeID, productName, units, 'order') "
+      + "RETURNING orderNumber";
+
+   /*
+    * Order history pages by keyset: the next page starts below the
+    * (orderTime, orderNumber) of the last row shown, so every page is a
+    * range scan of orders_customer_time_idx however deep it is.
+    */
+   static final String RECENT_ORDERS =
+      "SELECT o.storeID, s.name, o.productName, o.unitsOrdered, o.orderTime, o.orderNumber "
+      + "FROM Orders o, Store s WHERE o.customerID = ? AND s.storeID = o.storeID "
+      + "ORDER BY o.orderTime DESC, o.orderNumber DESC LIMIT ?";
+   static final String OLDER_ORDERS =
+      "SELECT o.storeID, s.name, o.productName, o.unitsOrdered, o.orderTime, o.orderNumber "
+      + "FROM Orders o, Store s WHERE o.customerID = ? AND s.storeID = o.storeID "
+      + "AND (o.orderTime, o.orderNumber) < (cast(? as timestamptz), ?) "
+      + "ORDER BY o.orderTime DESC, o.orderNumber DESC LIMIT ?";
+   static final int MAX_PAGE = 100;
+
+   static final String MANAGED_STORES =
+      "SELECT storeID FROM Store WHERE managerID = ? ORDER BY storeID";
+   // the five latest updates of each of the manager's stores, each a short
+   // scan of productupdates_store_time_idx.
+   static final String RECENT_UPDATES =
+      "SELECT u.updateNumber, u.managerID, u.storeID, u.productName, u.updatedOn FROM Store s "
+      + "CROSS JOIN LATERAL (SELECT updateNumber, managerID, storeID, productName, updatedOn "
+      + "FROM ProductUpdates pu WHERE pu.storeID = s.storeID "
+      + "ORDER BY pu.updatedOn DESC, pu.updateNumber DESC LIMIT 5) u "
+      + "WHERE s.managerID = ? ORDER BY u.storeID, u.updatedOn DESC, u.updateNumber DESC";
+   // top-5 index scans of the counts kept by sql/src/create_summaries.sql.
+   static final String POPULAR_PRODUCTS =
+      "select productName, orderCount as count from ManagerProductSales "
+      + "where managerID = ? order by orderCount desc limit 5";
+   static final String POPULAR_CUSTOMERS =
+      "select u.name, c.orderCount as count from ManagerCustomerOrders c, Users u "
+      + "where c.managerID = ? and u.userID = c.customerID order by c.orderCount desc limit 5";
+
+   // adds the units and records the request only for a store of the
+   // manager.  Adding stock is a ledger insert and locks nothing.
+   static final String REQUEST_SUPPLY = "WITH target AS ("
+      + "SELECT p.storeID, p.productName FROM Product p, Store s "
+      + "WHERE p.storeID = ? AND p.productName = cast(? as char(30)) AND s.storeID = p.storeID AND s.managerID = ?), "
+      + "stock AS (INSERT INTO InventoryMovement (storeID, productName, delta, reason) "
+      + "SELECT storeID, productName, ?, 'supply' FROM target "
+      + "RETURNING storeID, productName) "
+      + "INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested) "
+      + "SELECT ?, ?, storeID, productName, ? FROM stock "
+      + "RETURNING requestNumber";
+
+   private final Retail esql;
+   private final boolean nearbyFromSnapshot =
+      !"false".equals(System.getProperty("retail.reference.nearby"));
+
+   // names of all existing users, loaded on first use.
+   private UserNameRegistry userNames = null;
+
+   public RetailService(Retail esql) {
+      this.esql = esql;
+   }//end RetailService
+
+   public Retail getRetail() {
+      return this.esql;
+   }//end getRetail
+
+   /*
+    * Accounts
+    */
+
+   /**
+    * Checks a user's credentials with a single query.
+    *
+    * @return the session of the user, or null if the credentials are wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Session login (String name, String password) throws SQLException {
+      ResultTable user = this.esql.executeQueryAndReturnTable(LOGIN, name, password);
+      if (user.size() == 0)
+         return null;
+      return new Session(user.getInt(0, 0), name.trim(), user.getDouble(0, 1),
+         user.getDouble(0, 2), Session.Role.fromType(user.getString(0, 3)));
+   }//end login
+
+   /**
+    * Creates a customer account.
+    *
+    * @throws java.sql.SQLException when the name is taken or the insert fails
+    */
+   public void createCustomer (String name, String password, double latitude, double longitude) throws SQLException {
+      insertUser(name, password, latitude, longitude, "customer");
+   }//end createCustomer
+
+   /**
+    * Returns the registry of taken user names, streaming the names in from
+    * the Users table the first time it is needed.
+    *
+    * @return the shared user name registry
+    * @throws java.sql.SQLException when the names can not be read
+    */
+   public synchronized UserNameRegistry getUserNames() throws SQLException {
+      if (this.userNames == null){
+         final UserNameRegistry registry = new UserNameRegistry(1024);
+         this.esql.executeQueryStreaming(USER_NAMES, new RowHandler() {
+            public void handleRow(ResultSet rs) throws SQLException {
+               registry.add(rs.getString(1));
+            }
+         });
+         this.userNames = registry;
+      }
+      return this.userNames;
+   }//end getUserNames
+
+   /*
+    * Stores and products, for every role
+    */
+
+   /**
+    * Answers from the reference snapshot while it is kept current through
+    * ReferenceVersion.  Without that table the snapshot can be up to
+    * retail.reference.ttlSec old, so the stores are read from the database
+    * instead, as they are with -Dretail.reference.nearby=false.
+    *
+    * @return one (storeID, name) row per store within NEARBY_RADIUS of the
+    *         user, nearest first
+    * @throws java.sql.SQLException when the stores can not be read
+    */
+   public ResultTable nearbyStores (Session session) throws SQLException {
+      double lat = session.getLatitude();
+      double lon = session.getLongitude();
+      double radius = NEARBY_RADIUS;
+      if (this.nearbyFromSnapshot){
+         ReferenceData data = this.esql.getReferenceCache().get();
+         if (data.getVersion() != ReferenceCache.UNVERSIONED)
+            return data.storesWithin(lat, lon, radius);
+      }
+      return this.esql.executeQueryAndReturnTable(NEARBY_STORES, lat, lon,
+         lat - radius, lat + radius, lon - radius, lon + radius, radius);
+   }//end nearbyStores
+
+   /**
+    * @return the storeID of every store
+    * @throws java.sql.SQLException when the stores can not be read
+    */
+   public ResultTable storeIDs (Session session) throws SQLException {
+      return this.esql.getReferenceCache().get().getStoreIDs();
+   }//end storeIDs
+
+   public boolean storeExists (int storeID) throws SQLException {
+      return this.esql.getReferenceCache().get().hasStore(storeID);
+   }//end storeExists
+
+   /**
+    * @return productName, numberOfUnits and pricePerUnit of every product
+    *         of the store, usually from the catalog cache
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultTable storeProducts (Session session, int storeID) throws SQLException {
+      return catalog(storeID).getProducts();
+   }//end storeProducts
+
+   /**
+    * @return the store's products with lookup by name, usually from the
+    *         catalog cache
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public StoreCatalog catalog (int storeID) throws SQLException {
+      return this.esql.getCatalogCache().get(storeID);
+   }//end catalog
+
+   /*
+    * Customers
+    */
+
+   /**
+    * Places an order at a store near the customer.
+    *
+    * @return the new order number, or -1 if the store is not nearby, the
+    *         product does not exist there or does not have enough units
+    * @throws java.sql.SQLException when the caller is not a customer or the
+    *         statement fails
+    */
+   public int placeOrder (Session session, int storeID, String productName, int units) throws SQLException {
+      require(session, Session.Role.CUSTOMER);
+      if (units <= 0)
+         return -1;
+      ResultTable placed = this.esql.executeQueryAndReturnTable(PLACE_ORDER,
+         storeID, session.getLatitude(), session.getLongitude(), NEARBY_RADIUS * NEARBY_RADIUS,
+         productName, units, session.getUserID());
+      if (placed.size() == 0)
+         return -1;
+      this.esql.getCatalogCache().addUnits(storeID, productName, -units);
+      return placed.getInt(0, 0);
+   }//end placeOrder
+
+   /**
+    * @return the customer's five most recent orders, as in orderHistory
+    * @throws java.sql.SQLException when the caller is not a customer or the
+    *         query fails
+    */
+   public ResultTable recentOrders (Session session) throws SQLException {
+      return orderHistory(session, null, 0, 5);
+   }//end recentOrders
+
+   /**
+    * One page of the customer's orders, newest first.  Pass the orderTime
+    * and orderNumber of the last row of a page to get the page after it.
+    *
+    * @param beforeTime orderTime of the last order already shown, as
+    *        returned by this method, or null for the first page
+    * @param beforeNumber orderNumber of that order
+    * @param limit page size, 1 to MAX_PAGE
+    * @return storeID, store name, productName, unitsOrdered, orderTime and
+    *         orderNumber of up to limit orders
+    * @throws java.sql.SQLException when the caller is not a customer, the
+    *         page size is out of range or the query fails
+    */
+   public ResultTable orderHistory (Session session, String beforeTime, int beforeNumber, int limit) throws SQLException {
+      require(session, Session.Role.CUSTOMER);
+      if (limit < 1 || limit > MAX_PAGE)
+         throw new SQLException("Page size must be 1 to " + MAX_PAGE, INVALID_ARGUMENT);
+      if (beforeTime == null)
+         return this.esql.executeQueryAndReturnTable(RECENT_ORDERS, session.getUserID(), limit);
+      return this.esql.executeQueryAndReturnTable(OLDER_ORDERS, session.getUserID(),
+         beforeTime, beforeNumber, limit);
+   }//end orderHistory
+
+   /*
+    * Managers
+    */
+
+   /**
+    * @return storeID, productName, numberOfUnits and pricePerUnit of the
+    *         products of every store the manager runs
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         query fails
+    */
+   public ResultTable managedProducts (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.executeQueryAndReturnTable(MANAGED_PRODUCTS, session.getUserID());
+   }//end managedProducts
+
+   /**
+    * @return the storeID of every store the manager runs
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         query fails
+    */
+   public ResultTable managedStores (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.executeQueryAndReturnTable(MANAGED_STORES, session.getUserID());
+   }//end managedStores
+
+   /**
+    * Sets the stock or price of a product.  Managers may only change their
+    * own stores, the admin may change any store.  Every change is recorded
+    * in ProductUpdates through the AuditWriter.
+    *
+    * @return the number of products changed, 0 or 1
+    * @throws java.sql.SQLException when the caller is neither a manager nor
+    *         the admin, or the update fails
+    */
+   public int updateProduct (Session session, int storeID, String productName, ProductField field, double value) throws SQLException {
+      boolean admin = session != null && session.is(Session.Role.ADMIN);
+      if (!admin)
+         require(session, Session.Role.MANAGER);
+      int changed;
+      if (field == ProductField.UNITS){
+         int units = (int) value;
+         boolean set = admin
+            ? this.esql.executeCall(SET_STOCK, storeID, productName, units)
+            : this.esql.executeCall(SET_MANAGED_STOCK, storeID, session.getUserID(), storeID, productName, units);
+         changed = set ? 1 : 0;
+      }else if (admin){
+         changed = this.esql.executeUpdate(updateProductSql(field), value, storeID, productName);
+      }else{
+         changed = this.esql.executeUpdate(updateManagedProductSql(field),
+            value, storeID, productName, session.getUserID());
+      }
+      if (changed > 0){
+         if (field == ProductField.UNITS)
+            this.esql.getCatalogCache().setUnits(storeID, productName, (int) value);
+         else
+            this.esql.getCatalogCache().setPrice(storeID, productName, value);
+         this.esql.getAuditWriter().record(session.getUserID(), storeID, productName);
+      }
+      return changed;
+   }//end updateProduct
+
+   /**
+    * @return updateNumber, managerID, storeID, productName and updatedOn of
+    *         the five latest product updates of each of the manager's
+    *         stores, ordered by store and newest first
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         query fails
+    */
+   public ResultTable recentUpdates (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.executeQueryAndReturnTable(RECENT_UPDATES, session.getUserID());
+   }//end recentUpdates
+
+   /**
+    * @return the five products ordered most often at the manager's stores,
+    *         as productName and order count
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         query fails
+    */
+   public ResultTable popularProducts (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.executeQueryAndReturnTable(POPULAR_PRODUCTS, session.getUserID());
+   }//end popularProducts
+
+   /**
+    * @return the five customers with the most orders at the manager's
+    *         stores, as name and order count
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         query fails
+    */
+   public ResultTable popularCustomers (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.executeQueryAndReturnTable(POPULAR_CUSTOMERS, session.getUserID());
+   }//end popularCustomers
+
+   /**
+    * @return WarehouseID, area, latitude and longitude of every warehouse
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         warehouses can not be read
+    */
+   public ResultTable warehouses (Session session) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      return this.esql.getReferenceCache().get().getWarehouses();
+   }//end warehouses
+
+   public boolean warehouseExists (int warehouseID) throws SQLException {
+      return this.esql.getReferenceCache().get().hasWarehouse(warehouseID);
+   }//end warehouseExists
+
+   /**
+    * Records a supply request and adds the requested units to the store's
+    * stock in one statement.
+    *
+    * @return the new request number, or -1 if the manager does not manage
+    *         the store or the product does not exist there
+    * @throws java.sql.SQLException when the caller is not a manager or the
+    *         statement fails, e.g. for an unknown warehouse
+    */
+   public int requestSupply (Session session, int storeID, String productName, int warehouseID, int units) throws SQLException {
+      require(session, Session.Role.MANAGER);
+      if (units <= 0)
+         return -1;
+      ResultTable placed = this.esql.executeQueryAndReturnTable(REQUEST_SUPPLY,
+         storeID, productName, session.getUserID(), units,
+         session.getUserID(), warehouseID, units);
+      if (placed.size() == 0)
+         return -1;
+      this.esql.getCatalogCache().addUnits(storeID, productName, units);
+      return placed.getInt(0, 0);
+   }//end requestSupply
+
+   /*
+    * Admin
+    */
+
+   /**
+    * Streams every product to handler, ordered by store.
+    *
+    * @throws java.sql.SQLException when the caller is not the admin or the
+    *         query fails
+    */
+   public void forEachProduct (Session session, RowHandler handler) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      this.esql.executeQueryStreaming(ALL_PRODUCTS, handler);
+   }//end forEachProduct
+
+   public void addProduct (Session session, int storeID, String productName, int units, double price) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      try{
+         this.esql.executeUpdate(INSERT_PRODUCT, storeID, productName, units, price);
+      }finally{
+         this.esql.getCatalogCache().invalidate(storeID);
+      }
+   }//end addProduct
+
+   /**
+    * @return true if the product existed
+    */
+   public boolean deleteProduct (Session session, int storeID, String productName) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      // queued updates of the product must reach it first.
+      flushAudit();
+      boolean deleted = this.esql.executeUpdate(DELETE_PRODUCT, storeID, productName) > 0;
+      this.esql.getCatalogCache().invalidate(storeID);
+      return deleted;
+   }//end deleteProduct
+
+   // writes the queued audit rows, or refuses to go on without them.
+   private void flushAudit() throws SQLException {
+      if (!this.esql.getAuditWriter().flush())
+         throw new SQLException("Earlier product updates could not be recorded yet, try again later",
+            UNAVAILABLE);
+   }//end flushAudit
+
+   /**
+    * Renames a product and records the change under its new name.
+    *
+    * @return true if the product existed
+    */
+   public boolean renameProduct (Session session, int storeID, String productName, String newName) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      // queued updates still carry the old name.
+      flushAudit();
+      if (this.esql.executeUpdate(RENAME_PRODUCT, newName, storeID, productName) == 0)
+         return false;
+      this.esql.getCatalogCache().invalidate(storeID);
+      this.esql.getAuditWriter().record(session.getUserID(), storeID, newName);
+      return true;
+   }//end renameProduct
+
+   /**
+    * Streams every user to handler, ordered by userID.
+    *
+    * @throws java.sql.SQLException when the caller is not the admin or the
+    *         query fails
+    */
+   public void forEachUser (Session session, RowHandler handler) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      this.esql.executeQueryStreaming(ALL_USERS, handler);
+   }//end forEachUser
+
+   public boolean userExists (int userID) throws SQLException {
+      return this.esql.executeQuery(USER_EXISTS, userID) > 0;
+   }//end userExists
+
+   public void addUser (Session session, String name, String password, double latitude, double longitude, String type) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      insertUser(name, password, latitude, longitude, type);
+   }//end addUser
+
+   /**
+    * Deletes a user and drops its name from the registry.
+    *
+    * @return true if the user existed
+    */
+   public boolean deleteUser (Session session, int userID) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      ResultTable deleted = this.esql.executeQueryAndReturnTable(DELETE_USER, userID);
+      if (deleted.size() == 0)
+         return false;
+      getUserNames().remove(deleted.getString(0, 0));
+      return true;
+   }//end deleteUser
+
+   /**
+    * @return true if the user existed
+    */
+   public boolean updateUser (Session session, int userID, UserField field, String value) throws SQLException {
+      require(session, Session.Role.ADMIN);
+      Object v = value;
+      if (field != UserField.PASSWORD){
+         try{
+            v = Double.valueOf(value.trim());
+         }catch (NumberFormatException e){
+            throw new SQLException("Not a number: " + value, INVALID_ARGUMENT);
+         }
+      }
+      return this.esql.executeUpdate(updateUserSql(field), v, userID) > 0;
+   }//end updateUser
+
+   /*
+    * Helpers
+    */
+
+   /**
+    * Inserts a new user after checking the name against the registry.  A
+    * name taken by another process since the registry was loaded is caught
+    * by the unique index on Users(name): the insert then returns no row.
+    */
+   private void insertUser (String name, String password, double latitude, double longitude, String type) throws SQLException {
+      UserNameRegistry registry = getUserNames();
+      if (registry.isTaken(name))
+         throw new SQLException("User with that name already exists", DUPLICATE);
+      ResultTable inserted = this.esql.executeQueryAndReturnTable(INSERT_USER,
+         name, password, latitude, longitude, type);
+      registry.add(name);
+      if (inserted.size() == 0)
+         throw new SQLException("User with that name already exists", DUPLICATE);
+   }//end insertUser
+
+   // for the fields other than UNITS, which is set through SET_STOCK.
+   static String updateProductSql (ProductField field) {
+      return "UPDATE Product SET " + field.column + " = ? WHERE storeID = ? AND productName = cast(? as char(30))";
+   }//end updateProductSql
+
+   // changes the product only if the store is the manager's.
+   static String updateManagedProductSql (ProductField field) {
+      return "UPDATE Product p SET " + field.column + " = ? FROM Store s "
+         + "WHERE p.storeID = ? AND p.productName = cast(? as char(30)) AND s.storeID = p.storeID AND s.managerID = ?";
+   }//end updateManagedProductSql
+
+   static String updateUserSql (UserField field) {
+      return "UPDATE Users SET " + field.column + " = ? WHERE userID = ?";
+   }//end updateUserSql
+
+   static void require (Session session, Session.Role role) throws SQLException {
+      if (session == null || !session.is(role))
+         throw new SQLException("Not permitted for " + (session == null ? "anonymous users" : session.getRole()),
+            NOT_PERMITTED);
+   }//end require
+
+}//end RetailService
@@ -0,0 +1,18 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback handed each row of a streamed query (see
+ * Retail.executeQueryStreaming) while the result set is positioned on it.
+ * Implementations must copy out whatever they need before returning.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * @param rs the result set positioned on the current row
+    * @throws java.sql.SQLException when reading the row fails
+    */
+   void handleRow(ResultSet rs) throws SQLException;
+
+}//end RowHandler
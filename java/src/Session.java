@@ -0,0 +1,48 @@
+/**
+ * Identity of a logged in user, resolved once at login.  Immutable, so it
+ * can be handed to any operation or thread.
+ *
+ */
+public final class Session {
+
+   public enum Role {
+      CUSTOMER, MANAGER, ADMIN;
+
+      /**
+       * @param type the value of Users.type, e.g. "manager"
+       * @return the matching role
+       */
+      public static Role fromType(String type) {
+         return Role.valueOf(type.trim().toUpperCase());
+      }//end fromType
+   }//end Role
+
+   private final int userID;
+   private final String name;
+   private final double latitude;
+   private final double longitude;
+   private final Role role;
+
+   public Session(int userID, String name, double latitude, double longitude, Role role) {
+      this.userID = userID;
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.role = role;
+   }//end Session
+
+   public int getUserID() { return this.userID; }
+   public String getName() { return this.name; }
+   public double getLatitude() { return this.latitude; }
+   public double getLongitude() { return this.longitude; }
+   public Role getRole() { return this.role; }
+
+   public boolean is(Role role) {
+      return this.role == role;
+   }//end is
+
+   public String toString() {
+      return "Session[" + this.userID + ", " + this.name + ", " + this.role + "]";
+   }//end toString
+
+}//end Session
@@ -0,0 +1,80 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads for user sessions.  On a JDK with virtual threads (21+) every
+ * session gets its own virtual thread; on older JDKs, which this tree
+ * still compiles for, a platform thread is used instead.  The JDK 21 API
+ * is reached through reflection so the class compiles on both.
+ *
+ */
+public final class SessionThreads {
+
+   private static final Method OF_VIRTUAL = find(Thread.class, "ofVirtual");
+   private static final Method BUILDER_NAME = find("java.lang.Thread$Builder", "name", String.class);
+   private static final Method BUILDER_START = find("java.lang.Thread$Builder", "start", Runnable.class);
+   private static final Method PER_TASK_EXECUTOR = find(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+   private SessionThreads() {
+   }
+
+   /**
+    * @return true if sessions run on virtual threads
+    */
+   public static boolean isVirtual() {
+      return OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_START != null;
+   }//end isVirtual
+
+   /**
+    * Starts task on a new session thread.
+    *
+    * @param name thread name
+    * @param task the session's work
+    * @return the started thread
+    */
+   public static Thread start(String name, Runnable task) {
+      if (isVirtual()){
+         try{
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+            return (Thread) BUILDER_START.invoke(builder, task);
+         }catch (Exception e){
+            // fall back to a platform thread.
+         }
+      }
+      Thread thread = new Thread(task, name);
+      thread.start();
+      return thread;
+   }//end start
+
+   /**
+    * @return an executor running every task on its own session thread
+    */
+   public static ExecutorService newExecutor() {
+      if (PER_TASK_EXECUTOR != null){
+         try{
+            return (ExecutorService) PER_TASK_EXECUTOR.invoke(null);
+         }catch (Exception e){
+            // fall back to platform threads.
+         }
+      }
+      return Executors.newCachedThreadPool();
+   }//end newExecutor
+
+   private static Method find(Class<?> type, String name, Class<?>... params) {
+      try{
+         return type.getMethod(name, params);
+      }catch (NoSuchMethodException e){
+         return null;
+      }
+   }//end find
+
+   private static Method find(String type, String name, Class<?>... params) {
+      try{
+         return find(Class.forName(type), name, params);
+      }catch (ClassNotFoundException e){
+         return null;
+      }
+   }//end find
+
+}//end SessionThreads
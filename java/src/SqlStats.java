@@ -0,0 +1,398 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Per-statement timings of the Retail query helpers, aggregated by SQL
+ * template: the statement with its literals replaced by ? and its white
+ * space collapsed, so "currval('a')" and "currval('b')" add up together.
+ * Each template counts executions, errors, execution time (until the
+ * driver returns the result), fetch time (reading the rows, including the
+ * row handler of streamed queries), rows and bytes.  Bytes are the size
+ * of the bound parameters plus the values read back: numbers at their
+ * binary width, text one byte per character.
+ *
+ * The aggregates are published as JMX MBeans, retail:type=SqlStats for
+ * the totals and retail:type=SqlStats,template=N for each template, so
+ * jconsole or any JMX client can watch them.  Statements slower than
+ * retail.slowlog.thresholdMs (500, negative to disable) are appended with
+ * their parameters to retail.slowlog.file (retail-slow.log).  Statements
+ * that mention a password column (the login, user inserts and password
+ * changes) are logged as their template only, without parameters.  At most
+ * retail.sqlstats.maxTemplates (1000) templates are kept; later ones are
+ * counted under "(other)".
+ *
+ */
+public class SqlStats {
+
+   /**
+    * JMX view of one template.
+    */
+   public interface TemplateView {
+      String getSql();
+      long getExecutions();
+      long getErrors();
+      long getRows();
+      long getBytes();
+      double getExecMillis();
+      double getFetchMillis();
+      double getTotalMillis();
+      double getMeanMillis();
+      double getP99Millis();
+      double getMaxMillis();
+   }//end TemplateView
+
+   /**
+    * JMX view of all templates.
+    */
+   public interface StatsView {
+      int getTemplateCount();
+      long getExecutions();
+      long getErrors();
+      long getSlowStatements();
+      double getTotalMillis();
+      String[] top(int n);
+      void reset();
+   }//end StatsView
+
+   // the aggregates of one template.
+   public static final class Template implements TemplateView {
+      final String sql;
+      final AtomicLong executions = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong bytes = new AtomicLong();
+      final AtomicLong execNanos = new AtomicLong();
+      final AtomicLong fetchNanos = new AtomicLong();
+      volatile LatencyHistogram latency = new LatencyHistogram();
+
+      Template(String sql) {
+         this.sql = sql;
+      }
+
+      public String getSql() { return this.sql; }
+      public long getExecutions() { return this.executions.get(); }
+      public long getErrors() { return this.errors.get(); }
+      public long getRows() { return this.rows.get(); }
+      public long getBytes() { return this.bytes.get(); }
+      public double getExecMillis() { return this.execNanos.get() / 1e6; }
+      public double getFetchMillis() { return this.fetchNanos.get() / 1e6; }
+      public double getTotalMillis() { return (this.execNanos.get() + this.fetchNanos.get()) / 1e6; }
+      public double getMeanMillis() { return this.latency.mean() / 1e3; }
+      public double getP99Millis() { return this.latency.percentile(0.99) / 1e3; }
+      public double getMaxMillis() { return this.latency.max() / 1e3; }
+
+      void reset() {
+         this.executions.set(0);
+         this.errors.set(0);
+         this.rows.set(0);
+         this.bytes.set(0);
+         this.execNanos.set(0);
+         this.fetchNanos.set(0);
+         this.latency = new LatencyHistogram();
+      }
+   }//end Template
+
+   private static final String OTHER = "(other)";
+   private static final int MAX_PARAM_CHARS = 200;
+
+   // templates by normalized SQL, and by the raw SQL seen so far.
+   private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+   private final ConcurrentHashMap<String, Template> bySql = new ConcurrentHashMap<String, Template>();
+   private final AtomicInteger nextId = new AtomicInteger();
+   private final AtomicLong slowStatements = new AtomicLong();
+   private final int maxTemplates;
+   private final long slowNanos;
+   private final String slowLogFile;
+   private PrintWriter slowLog = null;
+   private MBeanServer mbeans = null;
+
+   public SqlStats() {
+      this.maxTemplates = Integer.getInteger("retail.sqlstats.maxTemplates", 1000);
+      long thresholdMs = Long.getLong("retail.slowlog.thresholdMs", 500L);
+      this.slowNanos = thresholdMs < 0 ? Long.MAX_VALUE : thresholdMs * 1000000L;
+      this.slowLogFile = System.getProperty("retail.slowlog.file", "retail-slow.log");
+   }//end SqlStats
+
+   /**
+    * Publishes the totals and, from now on, every template as MBeans.  An
+    * instance already registered in this JVM keeps its names.
+    */
+   public synchronized void register() {
+      try{
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("retail:type=SqlStats");
+         if (server.isRegistered(name))
+            return;
+         server.registerMBean(new StandardMBean(new StatsView() {
+            public int getTemplateCount() { return SqlStats.this.templates.size(); }
+            public long getExecutions() { return SqlStats.this.sum(0); }
+            public long getErrors() { return SqlStats.this.sum(1); }
+            public long getSlowStatements() { return SqlStats.this.slowStatements.get(); }
+            public double getTotalMillis() { return SqlStats.this.sum(2) / 1e6; }
+            public String[] top(int n) { return SqlStats.this.top(n); }
+            public void reset() { SqlStats.this.reset(); }
+         }, StatsView.class), name);
+         this.mbeans = server;
+         for (Template t : this.templates.values())
+            publish(t);
+      }catch (Exception e){
+         System.err.println("SQL statistics are not published over JMX: " + e.getMessage());
+      }
+   }//end register
+
+   /**
+    * Records one statement.
+    *
+    * @param sql the statement as sent
+    * @param params its parameters, or null
+    * @param start System.nanoTime() before it was sent
+    * @param executed System.nanoTime() when the driver returned, or 0 if it
+    *        failed before that
+    * @param end System.nanoTime() after its rows were read
+    * @param rows rows returned or changed
+    * @param bytes bytes of the values read back
+    * @param failed true if it threw
+    */
+   public void record(String sql, Object[] params, long start, long executed, long end,
+                      long rows, long bytes, boolean failed) {
+      Template t = templateOf(sql);
+      long exec = (executed == 0 ? end : executed) - start;
+      long fetch = executed == 0 ? 0 : end - executed;
+      t.executions.incrementAndGet();
+      if (failed)
+         t.errors.incrementAndGet();
+      t.rows.addAndGet(Math.max(rows, 0));
+      t.bytes.addAndGet(bytes + sizeOf(params));
+      t.execNanos.addAndGet(exec);
+      t.fetchNanos.addAndGet(fetch);
+      t.latency.record((exec + fetch) / 1000L);
+      if (exec + fetch >= this.slowNanos){
+         if (sensitive(sql))
+            logSlow(normalize(sql), null, exec, fetch, rows, failed);
+         else
+            logSlow(sql, params, exec, fetch, rows, failed);
+      }
+   }//end record
+
+   /**
+    * @return the templates, most total time first
+    */
+   public List<Template> templates() {
+      List<Template> list = new ArrayList<Template>(this.templates.values());
+      Collections.sort(list, new Comparator<Template>() {
+         public int compare(Template a, Template b) {
+            return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+         }
+      });
+      return list;
+   }//end templates
+
+   /**
+    * @return one line per template for the n templates with the most
+    *         total time
+    */
+   public String[] top(int n) {
+      List<Template> list = templates();
+      String[] lines = new String[Math.min(n, list.size())];
+      for (int i = 0; i < lines.length; ++i){
+         Template t = list.get(i);
+         lines[i] = String.format("%10.1f ms %8d x %8.2f ms p99 %10d rows  %s",
+            t.getTotalMillis(), t.getExecutions(), t.getP99Millis(), t.getRows(), t.sql);
+      }//end for
+      return lines;
+   }//end top
+
+   public void reset() {
+      for (Template t : this.templates.values())
+         t.reset();
+      this.slowStatements.set(0);
+   }//end reset
+
+   /**
+    * Closes the slow-query log.
+    */
+   public synchronized void close() {
+      if (this.slowLog != null){
+         this.slowLog.close();
+         this.slowLog = null;
+      }
+   }//end close
+
+   private Template templateOf(String sql) {
+      Template t = this.bySql.get(sql);
+      if (t != null)
+         return t;
+      String key = normalize(sql);
+      t = this.templates.get(key);
+      if (t == null){
+         if (this.templates.size() >= this.maxTemplates)
+            key = OTHER;
+         Template fresh = new Template(key);
+         t = this.templates.putIfAbsent(key, fresh);
+         if (t == null){
+            t = fresh;
+            publish(t);
+         }
+      }
+      // literal-laden SQL would grow this map without bound.
+      if (this.bySql.size() < 4 * this.maxTemplates)
+         this.bySql.put(sql, t);
+      return t;
+   }//end templateOf
+
+   private void publish(Template t) {
+      MBeanServer server;
+      synchronized (this){
+         server = this.mbeans;
+      }
+      if (server == null)
+         return;
+      try{
+         server.registerMBean(new StandardMBean(t, TemplateView.class),
+            new ObjectName("retail:type=SqlStats,template=" + this.nextId.incrementAndGet()));
+      }catch (Exception e){
+         // the template is still counted in the totals.
+      }
+   }//end publish
+
+   // 0 executions, 1 errors, 2 total nanoseconds
+   private long sum(int what) {
+      long sum = 0;
+      for (Template t : this.templates.values()){
+         if (what == 0)
+            sum += t.executions.get();
+         else if (what == 1)
+            sum += t.errors.get();
+         else
+            sum += t.execNanos.get() + t.fetchNanos.get();
+      }//end for
+      return sum;
+   }//end sum
+
+   private void logSlow(String sql, Object[] params, long exec, long fetch, long rows, boolean failed) {
+      this.slowStatements.incrementAndGet();
+      StringBuilder line = new StringBuilder();
+      line.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()));
+      line.append(String.format(" %.1f ms (exec %.1f, fetch %.1f) %d rows%s [%s] ",
+         (exec + fetch) / 1e6, exec / 1e6, fetch / 1e6, rows, failed ? " FAILED" : "",
+         Thread.currentThread().getName()));
+      line.append(sql.replaceAll("\\s+", " ").trim());
+      if (params != null && params.length > 0){
+         line.append(" -- params: ");
+         for (int i = 0; i < params.length; ++i){
+            if (i > 0)
+               line.append(", ");
+            line.append(render(params[i]));
+         }//end for
+      }
+      synchronized (this){
+         try{
+            if (this.slowLog == null)
+               this.slowLog = new PrintWriter(new FileWriter(this.slowLogFile, true));
+            this.slowLog.println(line);
+            this.slowLog.flush();
+         }catch (IOException e){
+            System.err.println("Can not write the slow query log: " + e.getMessage());
+         }
+      }
+   }//end logSlow
+
+   // true if the statement can carry a password, in its parameters or literals.
+   static boolean sensitive(String sql) {
+      return sql.toLowerCase().contains("password");
+   }//end sensitive
+
+   private static String render(Object param) {
+      if (param == null)
+         return "null";
+      if (param instanceof Number || param instanceof Boolean)
+         return param.toString();
+      String s = param.toString();
+      if (s.length() > MAX_PARAM_CHARS)
+         s = s.substring(0, MAX_PARAM_CHARS) + "...";
+      return "'" + s.replace("'", "''") + "'";
+   }//end render
+
+   static long sizeOf(Object[] params) {
+      if (params == null)
+         return 0;
+      long bytes = 0;
+      for (Object p : params){
+         if (p instanceof Integer)
+            bytes += 4;
+         else if (p instanceof Number)
+            bytes += 8;
+         else if (p != null)
+            bytes += p.toString().length();
+      }//end for
+      return bytes;
+   }//end sizeOf
+
+   /**
+    * @return sql with string and number literals replaced by ? and runs
+    *         of white space collapsed to one blank
+    */
+   static String normalize(String sql) {
+      StringBuilder out = new StringBuilder(sql.length());
+      int n = sql.length();
+      for (int i = 0; i < n; ){
+         char c = sql.charAt(i);
+         if (Character.isWhitespace(c)){
+            while (i < n && Character.isWhitespace(sql.charAt(i)))
+               ++i;
+            if (out.length() > 0 && i < n)
+               out.append(' ');
+         }else if (c == '\''){
+            // a string literal; '' is an escaped quote.
+            ++i;
+            while (i < n){
+               if (sql.charAt(i) == '\''){
+                  if (i + 1 < n && sql.charAt(i + 1) == '\''){
+                     i += 2;
+                     continue;
+                  }
+                  break;
+               }
+               ++i;
+            }//end while
+            ++i;
+            out.append('?');
+         }else if (Character.isDigit(c) && !partOfName(out)){
+            while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+               ++i;
+            out.append('?');
+         }else if (Character.isLetter(c) || c == '_'){
+            // a name, possibly with digits in it.
+            while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$'))
+               out.append(sql.charAt(i++));
+         }else{
+            out.append(c);
+            ++i;
+         }
+      }//end for
+      return out.toString();
+   }//end normalize
+
+   // true if the character before a digit continues a name, as in t1.
+   private static boolean partOfName(StringBuilder out) {
+      if (out.length() == 0)
+         return false;
+      char p = out.charAt(out.length() - 1);
+      return Character.isLetterOrDigit(p) || p == '_' || p == '$';
+   }//end partOfName
+
+}//end SqlStats
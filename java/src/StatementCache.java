@@ -0,0 +1,224 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of PreparedStatements for one physical connection, keyed by
+ * the SQL template.  A connection is only ever used by the thread that
+ * borrowed it, so the cache itself is not synchronized.  Statements handed
+ * out by the cache must not be closed by the caller.
+ *
+ * pg73jdbc3 fills the parameters into the SQL text on the client, so a
+ * plain prepared statement is parsed and planned again by the server on
+ * every execute, and the driver's own server-prepare switch is a no-op on
+ * servers from 10 on.  The cache therefore prepares on the server itself:
+ * on a miss it sends PREPARE retail_N AS the template with $1, $2, ... in
+ * place of the ? placeholders, and hands out a statement for EXECUTE
+ * retail_N(?, ?, ...).  The driver still fills in the parameters as
+ * literals, and the server casts them to the parameter types it inferred
+ * at PREPARE.  An evicted statement is deallocated; closing the connection
+ * drops the rest.
+ *
+ * A statement is prepared on the client as before when
+ * retail.pool.serverPrepare is false, when it is not a SELECT, INSERT,
+ * UPDATE, DELETE or WITH, when the connection is inside a transaction (a
+ * failed PREPARE would abort it), or when the server refuses the PREPARE,
+ * e.g. because it can not infer a parameter type.  The server-prepared
+ * counter shows how many statements took the server path.
+ *
+ */
+class StatementCache {
+
+   // a cached statement and the name it was prepared under, if any.
+   static class Cached {
+      final PreparedStatement statement;
+      final String name;
+
+      Cached(PreparedStatement statement, String name) {
+         this.statement = statement;
+         this.name = name;
+      }
+   }//end Cached
+
+   private final Connection connection;
+   private final int capacity;
+   private final AtomicLong hits;
+   private final AtomicLong misses;
+   private final AtomicLong serverPrepared;
+   private final boolean serverPrepare;
+   private final LinkedHashMap<String, Cached> statements;
+   // numbers the prepared statements of this connection.
+   private int nextName = 0;
+
+   /**
+    * @param connection the connection statements are prepared on
+    * @param capacity maximum number of statements kept open
+    * @param hits pool-wide hit counter
+    * @param misses pool-wide miss counter
+    * @param serverPrepared pool-wide count of statements prepared on the
+    *        server
+    * @param serverPrepare whether to PREPARE statements on the server
+    */
+   StatementCache(Connection connection, int capacity, AtomicLong hits, AtomicLong misses,
+                  AtomicLong serverPrepared, boolean serverPrepare) {
+      this.connection = connection;
+      this.capacity = capacity;
+      this.hits = hits;
+      this.misses = misses;
+      this.serverPrepared = serverPrepared;
+      this.serverPrepare = serverPrepare;
+      // access order turns the map into an LRU list.
+      this.statements = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for sql, preparing it on a miss and
+    * closing the least recently used statement when the cache is full.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @return a prepared statement owned by this cache
+    * @throws java.sql.SQLException when the statement can not be prepared
+    */
+   PreparedStatement prepare(String sql) throws SQLException {
+      Cached cached = this.statements.get(sql);
+      if (cached != null){
+         this.hits.incrementAndGet();
+         cached.statement.clearParameters();
+         return cached.statement;
+      }
+      this.misses.incrementAndGet();
+      cached = prepareOnServer(sql);
+      if (cached == null)
+         cached = new Cached(this.connection.prepareStatement(sql), null);
+      this.statements.put(sql, cached);
+      if (this.statements.size() > this.capacity){
+         Map.Entry<String, Cached> eldest =
+            this.statements.entrySet().iterator().next();
+         this.statements.remove(eldest.getKey());
+         closeQuietly(eldest.getValue(), true);
+      }
+      return cached.statement;
+   }//end prepare
+
+   // PREPAREs sql on the server; null if it is to be prepared on the client.
+   private Cached prepareOnServer(String sql) throws SQLException {
+      if (!this.serverPrepare || !preparable(sql) || !this.connection.getAutoCommit())
+         return null;
+      StringBuilder body = new StringBuilder(sql.length() + 16);
+      int params = number(sql, body);
+      String name = "retail_" + (++this.nextName);
+      Statement stmt = this.connection.createStatement();
+      try{
+         stmt.execute("PREPARE " + name + " AS " + body);
+      }catch (SQLException e){
+         return null;
+      }finally{
+         stmt.close();
+      }
+
+      StringBuilder execute = new StringBuilder("EXECUTE ").append(name);
+      for (int i = 0; i < params; ++i)
+         execute.append(i == 0 ? "(?" : ", ?");
+      if (params > 0)
+         execute.append(')');
+      PreparedStatement ps;
+      try{
+         ps = this.connection.prepareStatement(execute.toString());
+      }catch (SQLException e){
+         deallocateQuietly(name);
+         throw e;
+      }
+      this.serverPrepared.incrementAndGet();
+      return new Cached(ps, name);
+   }//end prepareOnServer
+
+   // the statement kinds PREPARE accepts.
+   static boolean preparable(String sql) {
+      String head = sql.trim();
+      int end = 0;
+      while (end < head.length() && Character.isLetter(head.charAt(end)))
+         ++end;
+      head = head.substring(0, end).toUpperCase();
+      return head.equals("SELECT") || head.equals("INSERT") || head.equals("UPDATE")
+         || head.equals("DELETE") || head.equals("WITH");
+   }//end preparable
+
+   /**
+    * Copies sql to out with its ? placeholders numbered $1, $2, ...; a ?
+    * inside a string literal, quoted name or comment is kept.
+    *
+    * @return the number of placeholders
+    */
+   static int number(String sql, StringBuilder out) {
+      int params = 0;
+      int n = sql.length();
+      for (int i = 0; i < n; ++i){
+         char c = sql.charAt(i);
+         if (c == '\'' || c == '"'){
+            // a literal or quoted name; a doubled quote is part of it.
+            int j = i + 1;
+            while (j < n && (sql.charAt(j) != c || (j + 1 < n && sql.charAt(j + 1) == c)))
+               j += sql.charAt(j) == c ? 2 : 1;
+            out.append(sql, i, Math.min(j + 1, n));
+            i = j;
+         }else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-'){
+            int j = sql.indexOf('\n', i);
+            j = j < 0 ? n : j;
+            out.append(sql, i, j);
+            i = j - 1;
+         }else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*'){
+            int j = sql.indexOf("*/", i + 2);
+            j = j < 0 ? n : j + 2;
+            out.append(sql, i, j);
+            i = j - 1;
+         }else if (c == '?'){
+            out.append('$').append(++params);
+         }else{
+            out.append(c);
+         }
+      }//end for
+      return params;
+   }//end number
+
+   int size() {
+      return this.statements.size();
+   }//end size
+
+   /**
+    * Closes every cached statement.  The connection is about to close, so
+    * the server drops the prepared statements itself.
+    */
+   void close() {
+      for (Cached cached : this.statements.values())
+         closeQuietly(cached, false);
+      this.statements.clear();
+   }//end close
+
+   private void closeQuietly(Cached cached, boolean deallocate) {
+      try{
+         cached.statement.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+      if (deallocate && cached.name != null)
+         deallocateQuietly(cached.name);
+   }//end closeQuietly
+
+   private void deallocateQuietly(String name) {
+      try{
+         Statement stmt = this.connection.createStatement();
+         try{
+            stmt.execute("DEALLOCATE " + name);
+         }finally{
+            stmt.close();
+         }
+      }catch (SQLException e){
+         // the name is not reused, so a leftover only costs memory.
+      }
+   }//end deallocateQuietly
+
+}//end StatementCache
@@ -0,0 +1,88 @@
+import java.util.HashMap;
+
+/**
+ * The products of one store as read at one moment: productName,
+ * numberOfUnits and pricePerUnit in table order, plus a hash index from
+ * product name to row so a lookup does not scan the list.  Instances are
+ * never changed; CatalogCache replaces them with updated copies, which
+ * copy only the changed column and share the names and the index.
+ *
+ */
+public final class StoreCatalog {
+
+   static final int NAME = 0;
+   static final int UNITS = 1;
+   static final int PRICE = 2;
+
+   private final int storeID;
+   private final ResultTable products;
+   private final HashMap<String, Integer> rowOf;
+   final long loadedAt;
+
+   StoreCatalog(int storeID, ResultTable products, long loadedAt) {
+      this.storeID = storeID;
+      this.products = products;
+      this.loadedAt = loadedAt;
+      this.rowOf = new HashMap<String, Integer>(products.size() * 2);
+      for (int r = 0; r < products.size(); ++r)
+         this.rowOf.put(products.getString(r, NAME), r);
+   }//end StoreCatalog
+
+   private StoreCatalog(StoreCatalog from, ResultTable products) {
+      this.storeID = from.storeID;
+      this.products = products;
+      this.loadedAt = from.loadedAt;
+      this.rowOf = from.rowOf;
+   }//end StoreCatalog
+
+   public int getStoreID() { return this.storeID; }
+
+   /**
+    * @return productName, numberOfUnits and pricePerUnit of every product;
+    *         do not change it
+    */
+   public ResultTable getProducts() { return this.products; }
+
+   public int size() { return this.products.size(); }
+
+   public boolean contains(String productName) {
+      return this.rowOf.containsKey(productName.trim());
+   }//end contains
+
+   /**
+    * @return the units in stock, or -1 if the store has no such product
+    */
+   public int units(String productName) {
+      Integer r = this.rowOf.get(productName.trim());
+      return r == null ? -1 : this.products.getInt(r, UNITS);
+   }//end units
+
+   /**
+    * @return the price per unit, or NaN if the store has no such product
+    */
+   public double price(String productName) {
+      Integer r = this.rowOf.get(productName.trim());
+      return r == null ? Double.NaN : this.products.getDouble(r, PRICE);
+   }//end price
+
+   // a copy with the product's units set, or null if it is not listed.
+   StoreCatalog withUnits(String productName, int units) {
+      Integer r = this.rowOf.get(productName.trim());
+      if (r == null)
+         return null;
+      ResultTable copy = this.products.copyColumn(UNITS);
+      copy.setInt(r, UNITS, units);
+      return new StoreCatalog(this, copy);
+   }//end withUnits
+
+   // a copy with the product's price set, or null if it is not listed.
+   StoreCatalog withPrice(String productName, double price) {
+      Integer r = this.rowOf.get(productName.trim());
+      if (r == null)
+         return null;
+      ResultTable copy = this.products.copyColumn(PRICE);
+      copy.setDouble(r, PRICE, price);
+      return new StoreCatalog(this, copy);
+   }//end withPrice
+
+}//end StoreCatalog
@@ -0,0 +1,104 @@
+import java.util.HashSet;
+
+/**
+ * In-memory set of taken user names with a Bloom filter in front of it.
+ * Most sign-ups pick a free name, which the filter rejects after a few bit
+ * probes; only possible hits go to the exact hash set.  Deleted names
+ * stay set in the filter until it is rebuilt, which only costs an extra
+ * hash set lookup.  The unique index on Users(name) remains the final
+ * guard against concurrent sign-ups from other processes.
+ *
+ */
+public class UserNameRegistry {
+
+   private static final int HASHES = 7;
+
+   private final HashSet<String> names = new HashSet<String>();
+   private long[] bits;
+   private int capacity;
+
+   public UserNameRegistry(int expected) {
+      allocate(Math.max(expected, 1024));
+   }//end UserNameRegistry
+
+   /**
+    * @param name a user name; surrounding blanks are ignored
+    * @return true if a user with this name exists
+    */
+   public synchronized boolean isTaken(String name) {
+      String key = name.trim();
+      if (!mightContain(key))
+         return false;
+      return this.names.contains(key);
+   }//end isTaken
+
+   /**
+    * Records a newly created user name.
+    */
+   public synchronized void add(String name) {
+      String key = name.trim();
+      if (!this.names.add(key))
+         return;
+      if (this.names.size() > this.capacity)
+         rebuild(this.capacity * 2);
+      else
+         setBits(key);
+   }//end add
+
+   /**
+    * Forgets a deleted user name.
+    */
+   public synchronized void remove(String name) {
+      this.names.remove(name.trim());
+   }//end remove
+
+   public synchronized int size() {
+      return this.names.size();
+   }//end size
+
+   // sized for about a 1% false positive rate at the given capacity.
+   private void allocate(int capacity) {
+      this.capacity = capacity;
+      long m = (long) Math.ceil(capacity * 9.6);
+      this.bits = new long[(int) ((m + 63) / 64)];
+   }//end allocate
+
+   private void rebuild(int capacity) {
+      allocate(capacity);
+      for (String key : this.names)
+         setBits(key);
+   }//end rebuild
+
+   private void setBits(String key) {
+      long m = this.bits.length * 64L;
+      int h1 = key.hashCode();
+      int h2 = mix(h1);
+      for (int i = 0; i < HASHES; ++i){
+         long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % m;
+         this.bits[(int) (bit >>> 6)] |= 1L << bit;
+      }//end for
+   }//end setBits
+
+   private boolean mightContain(String key) {
+      long m = this.bits.length * 64L;
+      int h1 = key.hashCode();
+      int h2 = mix(h1);
+      for (int i = 0; i < HASHES; ++i){
+         long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % m;
+         if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+            return false;
+      }//end for
+      return true;
+   }//end mightContain
+
+   // second, independent hash for double hashing (murmur3 finalizer).
+   private static int mix(int h) {
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h | 1;
+   }//end mix
+
+}//end UserNameRegistry
@@ -0,0 +1,20 @@
+-- Bounding-box prefilter for the "stores within 30 miles" lookup when it
+-- is not served from the reference snapshot (RetailService.nearbyStores):
+-- the latitude range is an index range scan and the longitude range is
+-- checked from the index entries.
+CREATE INDEX store_latitude_longitude_idx ON Store (latitude, longitude);
+
+-- User names must be unique; also turns the sign-up duplicate check into
+-- an index probe instead of a scan of Users.
+CREATE UNIQUE INDEX users_name_key ON Users (name);
+
+-- A customer's order history, newest first: "recent orders" and every
+-- later page (RetailService.orderHistory) are one index range scan.
+CREATE INDEX orders_customer_time_idx ON Orders (customerID, orderTime DESC, orderNumber DESC);
+
+-- A manager's stores (RetailService.managedStores, recentUpdates and the
+-- manager checks of product updates and supply requests).
+CREATE INDEX store_manager_idx ON Store (managerID);
+
+-- The latest updates of a store, newest first (RetailService.recentUpdates).
+CREATE INDEX productupdates_store_time_idx ON ProductUpdates (storeID, updatedOn DESC, updateNumber DESC);
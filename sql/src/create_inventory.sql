@@ -0,0 +1,114 @@
+-- Stock as an append-only ledger.  Orders, supply requests and manager
+-- updates insert a row into InventoryMovement instead of updating the
+-- Product row, so busy products do not queue on one row lock or leave a
+-- dead row version per sale.  Product.numberOfUnits is the base value as
+-- of the last compaction; the current stock is that plus the movements
+-- since (ProductStock).  compact_inventory() folds movements into the base
+-- and deletes them, which the application does every
+-- retail.inventory.compactSec seconds, so there are only ever a few
+-- movements per product to add up.
+--
+-- Stock may only go down through take_stock() and set_stock(), which
+-- serialize on a per-product advisory lock and read the stock after
+-- getting it; adding stock is a plain insert.
+--
+-- Run after create_tables.sql.
+
+DROP VIEW IF EXISTS ProductStock;
+DROP TABLE IF EXISTS InventoryMovement CASCADE;
+
+CREATE TABLE InventoryMovement ( movementID bigserial,
+                                 storeID integer NOT NULL,
+                                 productName char(30) NOT NULL,
+                                 delta integer NOT NULL,
+                                 reason char(10) NOT NULL,  -- 'order', 'supply' or 'update'
+                                 movedAt timestamptz NOT NULL DEFAULT now(),
+                                 PRIMARY KEY(movementID),
+                                 FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                                 ON DELETE CASCADE ON UPDATE CASCADE
+);
+CREATE INDEX inventorymovement_product_idx ON InventoryMovement (storeID, productName);
+
+-- Product with the current stock in numberOfUnits.
+CREATE VIEW ProductStock AS
+   SELECT p.storeID, p.productName,
+          cast(p.numberOfUnits + coalesce(m.delta, 0) AS integer) AS numberOfUnits,
+          p.pricePerUnit
+   FROM Product p
+   LEFT JOIN (SELECT storeID, productName, sum(delta) AS delta
+              FROM InventoryMovement GROUP BY storeID, productName) m
+          ON m.storeID = p.storeID AND m.productName = p.productName;
+
+CREATE OR REPLACE FUNCTION current_stock(p_store integer, p_product bpchar) RETURNS integer AS $$
+   SELECT cast(p.numberOfUnits + coalesce((SELECT sum(m.delta) FROM InventoryMovement m
+                                           WHERE m.storeID = p.storeID AND m.productName = p.productName), 0)
+               AS integer)
+   FROM Product p WHERE p.storeID = p_store AND p.productName = p_product;
+$$ LANGUAGE sql STABLE;
+
+-- Held until the end of the transaction.  Callers locking several
+-- products lock them in (storeID, productName) order.
+CREATE OR REPLACE FUNCTION lock_stock(p_store integer, p_product bpchar) RETURNS void AS $$
+   SELECT pg_advisory_xact_lock(p_store, hashtext(rtrim(p_product)));
+$$ LANGUAGE sql;
+
+-- Takes p_units from the stock if there are that many.  Every statement
+-- of a plpgsql function reads with a new snapshot, so the stock read
+-- here includes everything committed before the lock was granted.
+CREATE OR REPLACE FUNCTION take_stock(p_store integer, p_product bpchar, p_units integer, p_reason text) RETURNS boolean AS $$
+BEGIN
+   PERFORM lock_stock(p_store, p_product);
+   IF coalesce(current_stock(p_store, p_product), -1) < p_units THEN
+      RETURN false;
+   END IF;
+   INSERT INTO InventoryMovement (storeID, productName, delta, reason)
+      VALUES (p_store, p_product, -p_units, p_reason);
+   RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Sets the stock to p_units with one movement of the difference.
+CREATE OR REPLACE FUNCTION set_stock(p_store integer, p_product bpchar, p_units integer, p_reason text) RETURNS boolean AS $$
+DECLARE
+   stock integer;
+BEGIN
+   PERFORM lock_stock(p_store, p_product);
+   stock := current_stock(p_store, p_product);
+   IF stock IS NULL THEN
+      RETURN false;
+   END IF;
+   IF stock <> p_units THEN
+      INSERT INTO InventoryMovement (storeID, productName, delta, reason)
+         VALUES (p_store, p_product, p_units - stock, p_reason);
+   END IF;
+   RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Folds the oldest p_limit movements into Product.numberOfUnits and
+-- deletes them.  Delete and update are one statement, so a reader sees
+-- either the old base with the movements or the new base without them.
+-- Returns the number of movements folded, 0 if another compaction is
+-- running.
+CREATE OR REPLACE FUNCTION compact_inventory(p_limit integer) RETURNS bigint AS $$
+DECLARE
+   folded_moves bigint;
+BEGIN
+   IF NOT pg_try_advisory_xact_lock(hashtext('compact_inventory')) THEN
+      RETURN 0;
+   END IF;
+   WITH moved AS (
+      DELETE FROM InventoryMovement WHERE movementID IN (
+         SELECT movementID FROM InventoryMovement ORDER BY movementID LIMIT p_limit)
+      RETURNING storeID, productName, delta),
+   sums AS (
+      SELECT storeID, productName, sum(delta) AS delta, count(*) AS moves
+      FROM moved GROUP BY storeID, productName),
+   folded AS (
+      UPDATE Product p SET numberOfUnits = p.numberOfUnits + s.delta FROM sums s
+      WHERE p.storeID = s.storeID AND p.productName = s.productName
+      RETURNING s.moves)
+   SELECT coalesce(sum(folded.moves), 0) INTO folded_moves FROM folded;
+   RETURN folded_moves;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,31 @@
+-- Version counter of the stores and warehouses the application keeps in
+-- memory (ReferenceCache).  Every statement that changes Store or
+-- Warehouse bumps it in the same transaction, so the application only
+-- reads this one row to know whether its copy is still current.  Writes
+-- to those tables are rare; they queue on this row.
+--
+-- Run after create_tables.sql.  Without this table the application falls
+-- back to reloading its copy every retail.reference.ttlSec seconds.
+
+DROP TRIGGER IF EXISTS store_version ON Store;
+DROP TRIGGER IF EXISTS warehouse_version ON Warehouse;
+DROP TABLE IF EXISTS ReferenceVersion CASCADE;
+
+CREATE TABLE ReferenceVersion ( version bigint NOT NULL );
+-- starts from the clock so a re-created counter never repeats a version
+-- a running application already holds.
+INSERT INTO ReferenceVersion VALUES (cast(extract(epoch FROM now()) * 1000 AS bigint));
+
+CREATE OR REPLACE FUNCTION bump_reference_version() RETURNS trigger AS $$
+BEGIN
+   UPDATE ReferenceVersion SET version = version + 1;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER store_version
+   AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Store
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+CREATE TRIGGER warehouse_version
+   AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Warehouse
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
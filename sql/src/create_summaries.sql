@@ -0,0 +1,133 @@
+-- Order counts behind the managers' "popular products" and "popular
+-- customers" screens (RetailService.popularProducts/popularCustomers).
+-- Triggers on Orders keep them current in the same transaction as the
+-- order, so each screen is a top-5 index scan instead of a GROUP BY over
+-- all orders.  Counts are kept per manager because the screens rank
+-- across all of a manager's stores; a store changing manager moves its
+-- counts.  Needs PostgreSQL 10+ (transition tables).
+--
+-- Run after create_tables.sql.  Running it again rebuilds the counts from
+-- Orders.
+
+DROP TRIGGER IF EXISTS orders_added ON Orders;
+DROP TRIGGER IF EXISTS orders_removed ON Orders;
+DROP TRIGGER IF EXISTS orders_updated_old ON Orders;
+DROP TRIGGER IF EXISTS orders_updated_new ON Orders;
+DROP TRIGGER IF EXISTS store_manager_changed ON Store;
+DROP TABLE IF EXISTS ManagerProductSales CASCADE;
+DROP TABLE IF EXISTS ManagerCustomerOrders CASCADE;
+
+CREATE TABLE ManagerProductSales ( managerID integer NOT NULL,
+                                   productName char(30) NOT NULL,
+                                   orderCount integer NOT NULL,
+                                   PRIMARY KEY(managerID, productName)
+);
+CREATE INDEX managerproductsales_top_idx ON ManagerProductSales (managerID, orderCount DESC);
+
+CREATE TABLE ManagerCustomerOrders ( managerID integer NOT NULL,
+                                     customerID integer NOT NULL,
+                                     orderCount integer NOT NULL,
+                                     PRIMARY KEY(managerID, customerID)
+);
+CREATE INDEX managercustomerorders_top_idx ON ManagerCustomerOrders (managerID, orderCount DESC);
+
+-- Orders of one statement are aggregated before touching the counts, so
+-- bulk loads do one upsert per manager and product or customer.  Rows are
+-- upserted in key order so concurrent orders cannot deadlock.
+CREATE OR REPLACE FUNCTION orders_added() RETURNS trigger AS $$
+BEGIN
+   INSERT INTO ManagerProductSales AS t (managerID, productName, orderCount)
+      SELECT s.managerID, a.productName, count(*)
+      FROM added a JOIN Store s ON s.storeID = a.storeID
+      GROUP BY s.managerID, a.productName
+      ORDER BY s.managerID, a.productName
+   ON CONFLICT (managerID, productName)
+      DO UPDATE SET orderCount = t.orderCount + EXCLUDED.orderCount;
+   INSERT INTO ManagerCustomerOrders AS t (managerID, customerID, orderCount)
+      SELECT s.managerID, a.customerID, count(*)
+      FROM added a JOIN Store s ON s.storeID = a.storeID
+      GROUP BY s.managerID, a.customerID
+      ORDER BY s.managerID, a.customerID
+   ON CONFLICT (managerID, customerID)
+      DO UPDATE SET orderCount = t.orderCount + EXCLUDED.orderCount;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION orders_removed() RETURNS trigger AS $$
+BEGIN
+   UPDATE ManagerProductSales t SET orderCount = t.orderCount - r.n
+      FROM (SELECT s.managerID, o.productName, count(*) AS n
+            FROM removed o JOIN Store s ON s.storeID = o.storeID
+            GROUP BY s.managerID, o.productName) r
+      WHERE t.managerID = r.managerID AND t.productName = r.productName;
+   UPDATE ManagerCustomerOrders t SET orderCount = t.orderCount - r.n
+      FROM (SELECT s.managerID, o.customerID, count(*) AS n
+            FROM removed o JOIN Store s ON s.storeID = o.storeID
+            GROUP BY s.managerID, o.customerID) r
+      WHERE t.managerID = r.managerID AND t.customerID = r.customerID;
+   DELETE FROM ManagerProductSales WHERE orderCount <= 0 AND managerID IN
+      (SELECT s.managerID FROM removed o JOIN Store s ON s.storeID = o.storeID);
+   DELETE FROM ManagerCustomerOrders WHERE orderCount <= 0 AND managerID IN
+      (SELECT s.managerID FROM removed o JOIN Store s ON s.storeID = o.storeID);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER orders_added AFTER INSERT ON Orders
+   REFERENCING NEW TABLE AS added
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_added();
+CREATE TRIGGER orders_removed AFTER DELETE ON Orders
+   REFERENCING OLD TABLE AS removed
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_removed();
+-- an update counts as removing the old rows and adding the new ones.
+CREATE TRIGGER orders_updated_old AFTER UPDATE ON Orders
+   REFERENCING OLD TABLE AS removed
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_removed();
+CREATE TRIGGER orders_updated_new AFTER UPDATE ON Orders
+   REFERENCING NEW TABLE AS added
+   FOR EACH STATEMENT EXECUTE PROCEDURE orders_added();
+
+-- Moves a store's orders from its old manager's counts to the new one's.
+CREATE OR REPLACE FUNCTION store_manager_changed() RETURNS trigger AS $$
+BEGIN
+   UPDATE ManagerProductSales t SET orderCount = t.orderCount - r.n
+      FROM (SELECT productName, count(*) AS n FROM Orders
+            WHERE storeID = NEW.storeID GROUP BY productName) r
+      WHERE t.managerID = OLD.managerID AND t.productName = r.productName;
+   UPDATE ManagerCustomerOrders t SET orderCount = t.orderCount - r.n
+      FROM (SELECT customerID, count(*) AS n FROM Orders
+            WHERE storeID = NEW.storeID GROUP BY customerID) r
+      WHERE t.managerID = OLD.managerID AND t.customerID = r.customerID;
+   DELETE FROM ManagerProductSales WHERE managerID = OLD.managerID AND orderCount <= 0;
+   DELETE FROM ManagerCustomerOrders WHERE managerID = OLD.managerID AND orderCount <= 0;
+
+   INSERT INTO ManagerProductSales AS t (managerID, productName, orderCount)
+      SELECT NEW.managerID, productName, count(*) FROM Orders
+      WHERE storeID = NEW.storeID GROUP BY productName ORDER BY productName
+   ON CONFLICT (managerID, productName)
+      DO UPDATE SET orderCount = t.orderCount + EXCLUDED.orderCount;
+   INSERT INTO ManagerCustomerOrders AS t (managerID, customerID, orderCount)
+      SELECT NEW.managerID, customerID, count(*) FROM Orders
+      WHERE storeID = NEW.storeID GROUP BY customerID ORDER BY customerID
+   ON CONFLICT (managerID, customerID)
+      DO UPDATE SET orderCount = t.orderCount + EXCLUDED.orderCount;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER store_manager_changed AFTER UPDATE OF managerID ON Store
+   FOR EACH ROW WHEN (OLD.managerID IS DISTINCT FROM NEW.managerID)
+   EXECUTE PROCEDURE store_manager_changed();
+
+-- Backfill from the orders already loaded.
+INSERT INTO ManagerProductSales (managerID, productName, orderCount)
+   SELECT s.managerID, o.productName, count(*)
+   FROM Orders o JOIN Store s ON s.storeID = o.storeID
+   GROUP BY s.managerID, o.productName;
+INSERT INTO ManagerCustomerOrders (managerID, customerID, orderCount)
+   SELECT s.managerID, o.customerID, count(*)
+   FROM Orders o JOIN Store s ON s.storeID = o.storeID
+   GROUP BY s.managerID, o.customerID;
+ANALYZE ManagerProductSales;
+ANALYZE ManagerCustomerOrders;
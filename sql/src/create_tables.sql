@@ -5,6 +5,7 @@ DROP TABLE IF EXISTS Warehouse CASCADE;
 DROP TABLE IF EXISTS Orders CASCADE;
 DROP TABLE IF EXISTS ProductSupplyRequests CASCADE;
 DROP TABLE IF EXISTS ProductUpdates CASCADE;
+DROP TABLE IF EXISTS ReorderPoint CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50) NOT NULL,
@@ -47,7 +48,7 @@ CREATE TABLE Orders (
                      storeID integer NOT NULL,
                      productName char(30) NOT NULL, 
                      unitsOrdered integer NOT NULL, 
-                     orderTime char(40) NOT NULL,
+                     orderTime timestamptz NOT NULL DEFAULT now(),
                      PRIMARY KEY(orderNumber),
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
                      FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
@@ -76,3 +77,13 @@ CREATE TABLE ProductUpdates (
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
                         	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
 );
+
+-- Stock levels for automatic supply requests (ReplenishmentEngine): a
+-- product below threshold units at a store is topped up to targetUnits.
+-- Products without a row use the engine's defaults.
+CREATE TABLE ReorderPoint ( productName char(30) NOT NULL,
+                            threshold integer NOT NULL,
+                            targetUnits integer NOT NULL,
+                            PRIMARY KEY(productName),
+                            CHECK (threshold >= 0 AND targetUnits >= threshold)
+);
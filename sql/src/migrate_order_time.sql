@@ -0,0 +1,25 @@
+-- Converts Orders.orderTime of an existing database from char(40) to
+-- timestamptz and adds the order history index.  New databases get both
+-- from create_tables.sql and create_indexes.sql.
+--
+-- Older rows hold either 'YYYY-MM-DD HH:MI:SS' (the data files) or
+-- java.util.Date.toString() ('Sun Oct 18 12:34:56 PDT 2026', written by
+-- the application); the zone name of the latter is dropped and the time
+-- read in the server's time zone.
+
+BEGIN;
+
+ALTER TABLE Orders ALTER COLUMN orderTime TYPE timestamptz USING
+   CASE WHEN trim(orderTime) ~ '^\d{4}-'
+        THEN cast(trim(orderTime) AS timestamptz)
+        ELSE to_timestamp(regexp_replace(trim(orderTime),
+                '^\w+ (\w+ +\d+ [\d:]+) \S+ (\d+)$', '\1 \2'),
+                'Mon DD HH24:MI:SS YYYY')
+   END;
+ALTER TABLE Orders ALTER COLUMN orderTime SET DEFAULT now();
+
+CREATE INDEX IF NOT EXISTS orders_customer_time_idx ON Orders (customerID, orderTime DESC, orderNumber DESC);
+
+COMMIT;
+
+ANALYZE Orders;
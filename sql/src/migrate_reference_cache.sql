@@ -0,0 +1,10 @@
+-- Brings an existing database in line with the in-memory store lookups
+-- (ReferenceCache): adds the ReferenceVersion table and its triggers.  New
+-- databases get them from create_reference_version.sql.  The bounding-box
+-- index on Store stays, and is put back where an earlier version of this
+-- script dropped it: RetailService.nearbyStores still queries with it when
+-- the snapshot is not versioned or retail.reference.nearby is false.
+
+CREATE INDEX IF NOT EXISTS store_latitude_longitude_idx ON Store (latitude, longitude);
+
+\ir create_reference_version.sql
@@ -0,0 +1,13 @@
+-- Adds the unique index on Users(name) to an existing database.  New
+-- databases get it from create_indexes.sql.  Sign-up relies on it: the
+-- INSERT ... ON CONFLICT (name) of RetailService.INSERT_USER fails without
+-- it.
+--
+-- The index can not be built while two users share a name.  The query
+-- below lists such names; rename or delete the extra users first.
+--
+--    SELECT name, count(*) FROM Users GROUP BY name HAVING count(*) > 1;
+
+CREATE UNIQUE INDEX IF NOT EXISTS users_name_key ON Users (name);
+
+ANALYZE Users;